@@ -28,7 +28,7 @@ public final class SimplePlanner {
 
     private List<Plan> solve(String targetId, Set<String> available, int maxDepth, int maxPlans) {
         Map<String, List<Plan>> memo = new HashMap<>();
-        Set<String> visiting = new HashSet<>();
+        Map<String, Integer> visiting = new HashMap<>();
         Budget budget = new Budget(maxPlans);
 
         List<Plan> result = solveRec(MaterialMatcher.id(targetId), available, 0, maxDepth, memo, visiting, budget);
@@ -47,7 +47,7 @@ public final class SimplePlanner {
                                             int depth,
                                             int maxDepth,
                                             Map<String, List<Plan>> memo,
-                                            Set<String> visiting,
+                                            Map<String, Integer> visiting,
                                             Budget budget) {
         if (budget.exhausted()) return List.of();
         if (depth > maxDepth) return List.of();
@@ -56,10 +56,19 @@ public final class SimplePlanner {
             return List.of(Plan.availableLeaf(target.getMaterialId()));
         }
 
+        // cycle: avant le memo, un plan déjà calculé pour target le dériverait de lui-même
+        Integer onPath = visiting.get(target.key());
+        if (onPath != null) {
+            budget.cycleHit = Math.min(budget.cycleHit, onPath);
+            return List.of();
+        }
+
         String key = target.key() + "|d=" + depth;
         if (memo.containsKey(key)) return memo.get(key);
 
-        if (!visiting.add(target.key())) return List.of();
+        visiting.put(target.key(), depth);
+        int outerHit = budget.cycleHit;
+        budget.cycleHit = Integer.MAX_VALUE;
 
         List<Plan> out = new ArrayList<>();
 
@@ -98,7 +107,9 @@ public final class SimplePlanner {
 
         visiting.remove(target.key());
         out.sort(Comparator.comparingInt(p -> p.cost));
-        memo.put(key, out);
+        // branche coupée par un cycle sur un ancêtre => résultat propre à ce chemin, pas de memo
+        if (budget.cycleHit >= depth) memo.put(key, out);
+        budget.cycleHit = Math.min(outerHit, budget.cycleHit);
         return out;
     }
 
@@ -147,6 +158,7 @@ public final class SimplePlanner {
 
     private static final class Budget {
         private int remaining;
+        private int cycleHit = Integer.MAX_VALUE; // profondeur min d'un ancêtre rencontré par un cycle
 
         Budget(int max) {
             this.remaining = max;
@@ -0,0 +1,74 @@
+package fr.mrqsdf.factory;
+
+import com.sun.management.ThreadMXBean;
+import fr.mrqsdf.recipe.MakeCharcoal;
+import fr.mrqsdf.recipe.MakeWort;
+import fr.mrqsdf.recipe.SmeltIron;
+import fr.olympus.hephaestus.factory.Factory;
+import fr.olympus.hephaestus.materials.MaterialInstance;
+import fr.olympus.hephaestus.processing.FactoryEvent;
+import fr.olympus.hephaestus.resources.HephaestusData;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static fr.mrqsdf.resources.Data.COAL;
+import static fr.mrqsdf.resources.Data.IRON_ORE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tick sans allocation: une fois chaud, update() et pushEvent() n'allouent rien,
+ * qu'une session soit en cours (SmeltIron avant minSeconds) ou que la factory soit au repos.
+ */
+class FactoryAllocationTest {
+
+    private static final int FACTORIES = 64;
+    private static final int WARMUP_STEPS = 20_000;
+    private static final int MEASURED_STEPS = 2_000;
+    private static final float DT = 0.0001f; // SmeltIron reste avant ses 8 s pendant tout le test
+
+    private final HephaestusData data = new HephaestusData();
+    private final FactoryEvent event = new FactoryEvent.Action("ex:stoke", 1f);
+
+    @Test
+    void updateAndPushEventDoNotAllocate() {
+        ThreadMXBean mx = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(mx.isThreadAllocatedMemorySupported(), "thread allocation counter unavailable");
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        Factory[] factories = new Factory[FACTORIES];
+        for (int i = 0; i < FACTORIES; i++) {
+            Factory f = new StoneFurnaceFactory();
+            f.addRecipes(List.of(new SmeltIron(), new MakeCharcoal(), new MakeWort()));
+            f.startFactory();
+            if (i % 2 == 0) {
+                // session SmeltIron en cours; les autres n'ont aucune recette démarrable
+                f.insert(new MaterialInstance(IRON_ORE, new byte[0][][]));
+                f.insert(new MaterialInstance(COAL, new byte[0][][]));
+            }
+            factories[i] = f;
+        }
+
+        step(factories, WARMUP_STEPS);
+
+        long before = mx.getCurrentThreadAllocatedBytes();
+        step(factories, MEASURED_STEPS);
+        long allocated = mx.getCurrentThreadAllocatedBytes() - before;
+
+        assertEquals(0L, allocated, "bytes allocated over " + MEASURED_STEPS + " steady-state steps");
+        for (int i = 0; i < FACTORIES; i += 2) {
+            assertTrue(factories[i].extractAllOutputs().isEmpty(), "SmeltIron should still be running");
+        }
+    }
+
+    private void step(Factory[] factories, int steps) {
+        for (int s = 0; s < steps; s++) {
+            for (Factory f : factories) {
+                f.update(DT, data);
+                f.pushEvent(event, data);
+            }
+        }
+    }
+}
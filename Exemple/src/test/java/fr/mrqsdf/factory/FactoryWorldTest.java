@@ -0,0 +1,80 @@
+package fr.mrqsdf.factory;
+
+import fr.mrqsdf.recipe.SimpleProcessRecipe;
+import fr.olympus.hephaestus.factory.Factory;
+import fr.olympus.hephaestus.factory.FactoryWorld;
+import fr.olympus.hephaestus.materials.MaterialInstance;
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+import fr.olympus.hephaestus.processing.ProcessContext;
+import fr.olympus.hephaestus.processing.ProcessingPhase;
+import fr.olympus.hephaestus.processing.TimeWindow;
+import fr.olympus.hephaestus.resources.HephaestusData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static fr.mrqsdf.resources.Data.COAL;
+import static fr.mrqsdf.resources.Data.GROUP_FURNACE;
+import static fr.mrqsdf.resources.Data.IRON_INGOT;
+import static fr.mrqsdf.resources.Data.IRON_ORE;
+import static fr.mrqsdf.utils.GroupsUtils.selectorGroupsMinLevel;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Réveils d'un FactoryWorld: l'échéance de wakeAfter lève sleep() et la session reprend.
+ */
+class FactoryWorldTest {
+
+    private static final float DT = 0.25f;
+
+    /** SmeltIron qui consomme ses inputs et sort un lingot à minSeconds. */
+    private static final class Smelt extends SimpleProcessRecipe {
+        Smelt() {
+            super("test:smelt", selectorGroupsMinLevel(GROUP_FURNACE, 1), false,
+                    List.of(MaterialMatcher.id(IRON_ORE), MaterialMatcher.id(COAL)),
+                    List.of(MaterialMatcher.id(IRON_INGOT)), 3, new TimeWindow(8f, 15f));
+        }
+
+        @Override
+        public boolean tryComplete(ProcessContext ctx, HephaestusData data, float elapsedSeconds, ProcessingPhase phase) {
+            if (!super.tryComplete(ctx, data, elapsedSeconds, phase)) return false;
+            ctx.contents().clear();
+            ctx.pushOutput(new MaterialInstance(IRON_INGOT, new byte[0][][]));
+            return true;
+        }
+    }
+
+    @Test
+    void wakeAfterEndsSleep() {
+        FactoryWorld world = new FactoryWorld(new HephaestusData());
+        Factory f = new StoneFurnaceFactory();
+        f.addRecipes(List.of(new Smelt()));
+        f.startFactory();
+        f.insert(new MaterialInstance(IRON_ORE, new byte[0][][]));
+        f.insert(new MaterialInstance(COAL, new byte[0][][]));
+        world.add(f);
+
+        tickUntil(world, 1.0); // session Smelt en cours (8 s minimum)
+        f.sleep();
+        f.wakeAfter(0.5f);
+
+        tickUntil(world, 1.25);
+        assertTrue(f.isDormant(), "asleep before the wakeAfter deadline");
+
+        tickUntil(world, 3.0);
+        assertFalse(f.isDormant(), "wakeAfter deadline should end sleep()");
+
+        // 8 s de session + le temps dormi (non rattrapé)
+        tickUntil(world, 10.0);
+        List<FactoryWorld.Output> outputs = world.collectOutputs();
+        assertEquals(1, outputs.size(), "Smelt should complete after waking");
+        assertSame(f, outputs.get(0).factory());
+    }
+
+    private static void tickUntil(FactoryWorld world, double time) {
+        while (world.time() < time) world.tick(DT);
+    }
+}
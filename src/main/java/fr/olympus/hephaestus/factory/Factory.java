@@ -5,21 +5,54 @@ import fr.olympus.hephaestus.processing.*;
 import fr.olympus.hephaestus.resources.HephaestusData;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * Usine runtime: une session (recette en cours) à la fois.
+ *
+ * Sélection d'une recette (sans session): recettes triées et indexées ({@link RecipeDispatch}),
+ * réévaluée seulement si contents, outputs ou recipes ont changé depuis le dernier échec
+ * (ou après {@link #markDirty()}): une usine au repos ne coûte rien par tick.
+ *
+ * Dormance ({@link #isDormant()}): arrêtée, sans recette démarrable depuis le dernier essai,
+ * ou endormie via {@link #sleep()}. Un {@link FactoryWorld} ne tick plus une factory dormante
+ * jusqu'à un réveil: insert, pushEvent, startFactory, addRecipes, extractAllOutputs, markDirty,
+ * ou l'échéance de {@link #wakeAfter(float)}. Modifier contents directement ne réveille pas:
+ * appeler markDirty() ensuite.
+ *
+ * Session minutée d'une recette sans callbacks par tick ({@link ProcessRecipe#needsTickCallbacks()}):
+ * un FactoryWorld ne la tick qu'à ses changements de phase ({@link #secondsToNextPhase()}) et aux
+ * réveils, elapsed rattrapant le temps écoulé entre-temps.
+ */
 public abstract class Factory {
 
-    protected final List<MaterialInstance> contents = new ArrayList<>();
-    protected final List<MaterialInstance> outputs = new ArrayList<>();
+    // listes versionnées: toute modification (directe, via ProcessContext ou une sous-classe) est vue
+    private final TrackedList<MaterialInstance> trackedContents = new TrackedList<>();
+    private final TrackedList<MaterialInstance> trackedOutputs = new TrackedList<>();
+    private final TrackedList<ProcessRecipe> trackedRecipes = new TrackedList<>();
 
-    protected final List<ProcessRecipe> recipes = new ArrayList<>();
+    protected final List<MaterialInstance> contents = trackedContents;
+    protected final List<MaterialInstance> outputs = trackedOutputs;
+
+    protected final List<ProcessRecipe> recipes = trackedRecipes;
+
+    // vue sur contents / outputs, réutilisée à chaque appel (tick sans allocation)
+    private final ProcessContext context = new ProcessContext(contents, outputs);
 
     protected boolean isOperating;
 
     private ProcessSession session;
 
+    private RecipeDispatch dispatch;
+    private long dispatchVersion = -1;  // version de recipes à la construction de dispatch
+    private long failedStamp = -1;      // stamp() du dernier ensureSession sans recette démarrable
+    private HephaestusData failedData;
+    private long dirtyCount;
+
+    private boolean sleeping;           // sleep() explicite, levé par tout réveil
+    FactoryWorld.Entry worldEntry;      // monde qui tick cette factory (null si aucun)
+
     // --- Registry meta (set by HephaestusData.createFactory) ---
     private String registryId;
     private Set<String> registryGroups = Set.of();
@@ -29,60 +62,131 @@ public abstract class Factory {
     public final Set<String> getRegistryGroups() { return registryGroups; }
     public final int getRegistryLevel() { return registryLevel; }
 
-    public void startFactory() { isOperating = true; }
+    public void startFactory() {
+        isOperating = true;
+        wake();
+    }
     public void stopFactory() { isOperating = false; session = null; }
 
+    /**
+     * Force une nouvelle sélection de recette au prochain update / pushEvent
+     * (à appeler si un canStart dépend d'un état autre que contents / outputs).
+     */
+    public final void markDirty() {
+        dirtyCount++;
+        wake();
+    }
+
+    /**
+     * true si update() ne ferait rien jusqu'au prochain réveil: arrêtée, endormie (sleep),
+     * ou sans session et sans recette démarrable depuis le dernier essai.
+     */
+    public final boolean isDormant() {
+        if (!isOperating || sleeping) return true;
+        return session == null && failedStamp == stamp();
+    }
+
+    /**
+     * Endort la factory jusqu'au prochain réveil, même avec une session en cours
+     * (son temps est alors suspendu: le temps dormi n'est pas rattrapé).
+     */
+    public final void sleep() {
+        FactoryWorld.Entry e = worldEntry;
+        if (e != null) e.world().resume(e); // temps d'attente d'une phase compté jusqu'ici
+        sleeping = true;
+    }
+
+    /**
+     * Secondes (de session) avant le prochain changement de phase de la session en cours:
+     * minSeconds atteint, puis maxSeconds dépassé. Infini sans session minutée ou après maxSeconds.
+     */
+    public final float secondsToNextPhase() {
+        ProcessSession s = session;
+        if (s == null || !s.timed) return Float.POSITIVE_INFINITY;
+        if (s.elapsed < s.minSeconds) return s.minSeconds - s.elapsed;
+        if (s.elapsed <= s.maxSeconds) return s.maxSeconds - s.elapsed; // 0 => AFTER_MAX au tick suivant
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /** true si update() n'a rien d'autre à faire qu'avancer elapsed jusqu'au prochain changement de phase. */
+    final boolean awaitsPhase() {
+        return isOperating && !sleeping && session != null && session.waits;
+    }
+
+    /** Temps passé hors des ticks en attendant un changement de phase (voir FactoryWorld). */
+    final void catchUp(float seconds) {
+        if (session != null && seconds > 0) session.elapsed += seconds;
+    }
+
+    /** Réveil programmé dans seconds (temps du {@link FactoryWorld}); sans monde, sans effet. */
+    public final void wakeAfter(float seconds) {
+        if (seconds < 0) throw new IllegalArgumentException("seconds must be >= 0.");
+        FactoryWorld.Entry e = worldEntry;
+        if (e != null) e.world().wakeAfter(e, seconds);
+    }
+
+    /** Échéance de wakeAfter atteinte (FactoryWorld, hors update): lève sleep() comme tout réveil. */
+    final void wakeFromTimer() {
+        sleeping = false;
+    }
+
+    private void wake() {
+        sleeping = false;
+        FactoryWorld.Entry e = worldEntry;
+        if (e != null) e.world().wake(e);
+    }
+
     public void addRecipes(List<ProcessRecipe> list) {
         if (list != null) recipes.addAll(list);
+        wake();
     }
 
     public List<MaterialInstance> extractAllOutputs() {
         List<MaterialInstance> out = new ArrayList<>(outputs);
         outputs.clear();
+        if (!out.isEmpty()) wake(); // place libérée: une recette peut redevenir démarrable
         return out;
     }
 
     public void insert(MaterialInstance mat) {
         contents.add(mat);
+        wake();
     }
 
     public void pushEvent(FactoryEvent event, HephaestusData data) {
+        wake();
         if (!isOperating) return;
 
         ensureSession(data);
         if (session == null) return;
 
-        ProcessContext ctx = new ProcessContext(contents, outputs);
         ProcessingPhase phase = session.phase();
-        session.recipe.onEvent(ctx, data, event, session.elapsed, phase);
+        session.recipe.onEvent(context, data, event, session.elapsed, phase);
 
-        if (session.recipe.tryComplete(ctx, data, session.elapsed, phase)) {
+        if (session.recipe.tryComplete(context, data, session.elapsed, phase)) {
             session = null;
         }
     }
 
     public final void update(float dt, HephaestusData data) {
-        if (!isOperating) return;
+        if (!isOperating || sleeping) return;
 
         ensureSession(data);
         if (session == null) return;
 
         session.elapsed += dt;
 
-        TimeWindow w = session.recipe.timeWindowOrNull();
         ProcessingPhase phase = session.phase();
 
-        ProcessContext ctx = new ProcessContext(contents, outputs);
-
-        if (w != null) {
-            session.recipe.onTick(ctx, data, session.elapsed, phase);
+        if (session.timed && !session.waits) {
+            session.recipe.onTick(context, data, session.elapsed, phase);
 
             if (phase == ProcessingPhase.AFTER_MAX) {
-                session.recipe.onOverProcessed(ctx, data, session.elapsed);
+                session.recipe.onOverProcessed(context, data, session.elapsed);
             }
         }
 
-        if (session.recipe.tryComplete(ctx, data, session.elapsed, phase)) {
+        if (session.recipe.tryComplete(context, data, session.elapsed, phase)) {
             session = null;
         }
     }
@@ -90,21 +194,33 @@ public abstract class Factory {
     private void ensureSession(HephaestusData data) {
         if (session != null) return;
 
-        ProcessContext ctx = new ProcessContext(contents, outputs);
+        // rien n'a changé depuis le dernier échec => même résultat, aucun canStart
+        long stamp = stamp();
+        if (stamp == failedStamp && data == failedData) return;
+
+        long recipesVersion = trackedRecipes.version();
+        if (dispatch == null || dispatchVersion != recipesVersion) {
+            dispatch = new RecipeDispatch(recipes);
+            dispatchVersion = recipesVersion;
+        }
 
-        ProcessRecipe best = recipes.stream()
-                .filter(r -> r.canStart(ctx, data))
-                .max(Comparator
-                        .comparingInt(ProcessRecipe::priority)
-                        .thenComparingInt(ProcessRecipe::specificityScore)
-                        .thenComparingInt(ProcessRecipe::inputCount))
-                .orElse(null);
+        ProcessRecipe best = dispatch.select(contents, context, data);
 
         if (best != null) {
             session = new ProcessSession(best);
+            failedStamp = -1;
+            failedData = null;
+        } else {
+            failedStamp = stamp;
+            failedData = data;
         }
     }
 
+    /** Somme de compteurs croissants: change dès que l'un d'eux change. */
+    private long stamp() {
+        return trackedContents.version() + trackedOutputs.version() + trackedRecipes.version() + dirtyCount;
+    }
+
     /** Appelé par la lib (HephaestusData) au moment de la création de l'instance runtime. */
     public final void setRegistryMeta(String id, Set<String> groups, int level) {
         if (id == null || id.isBlank()) throw new IllegalArgumentException("id cannot be null/blank.");
@@ -114,20 +230,43 @@ public abstract class Factory {
         this.registryLevel = level;
     }
 
+    /** ArrayList dont la version (modCount) compte aussi les set(). */
+    @SuppressWarnings("serial") // jamais sérialisée
+    private static final class TrackedList<E> extends ArrayList<E> {
+        long version() {
+            return modCount;
+        }
+
+        @Override
+        public E set(int index, E element) {
+            modCount++;
+            return super.set(index, element);
+        }
+    }
+
     private static final class ProcessSession {
         final ProcessRecipe recipe;
+        // fenêtre lue une fois au démarrage (mêmes tests que TimeWindow.beforeMin / afterMax)
+        final boolean timed;
+        final boolean waits;    // minutée sans callbacks par tick
+        final float minSeconds;
+        final float maxSeconds;
         float elapsed;
 
         ProcessSession(ProcessRecipe recipe) {
             this.recipe = recipe;
+            TimeWindow w = recipe.timeWindowOrNull();
+            this.timed = w != null;
+            this.waits = timed && !recipe.needsTickCallbacks();
+            this.minSeconds = w == null ? 0f : w.minSeconds();
+            this.maxSeconds = w == null ? 0f : w.maxSeconds();
             this.elapsed = 0f;
         }
 
         ProcessingPhase phase() {
-            TimeWindow w = recipe.timeWindowOrNull();
-            if (w == null) return ProcessingPhase.IN_WINDOW;
-            if (w.beforeMin(elapsed)) return ProcessingPhase.BEFORE_MIN;
-            if (w.afterMax(elapsed)) return ProcessingPhase.AFTER_MAX;
+            if (!timed) return ProcessingPhase.IN_WINDOW;
+            if (elapsed < minSeconds) return ProcessingPhase.BEFORE_MIN;
+            if (elapsed > maxSeconds) return ProcessingPhase.AFTER_MAX;
             return ProcessingPhase.IN_WINDOW;
         }
     }
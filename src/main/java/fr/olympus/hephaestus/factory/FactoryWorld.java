@@ -0,0 +1,408 @@
+package fr.olympus.hephaestus.factory;
+
+import fr.olympus.hephaestus.materials.MaterialInstance;
+import fr.olympus.hephaestus.processing.ProcessRecipe;
+import fr.olympus.hephaestus.resources.HephaestusData;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Ensemble de factories tickées ensemble:
+ * - tick(dt): update(dt, data) des factories actives, dans le thread appelant, ou par partitions
+ *   contiguës sur un ForkJoinPool si le monde en a reçu un
+ * - collectOutputs(): extractAllOutputs() des factories qui ont produit, en une passe, ordre d'ajout
+ *
+ * Dormance: une factory dormante après son tick ({@link Factory#isDormant()}) sort de la liste
+ * active et n'est plus visitée jusqu'à un réveil (insert, pushEvent, startFactory... ou
+ * {@link Factory#wakeAfter(float)}): le coût d'un tick suit le nombre de factories actives.
+ *
+ * Sessions sans callbacks par tick ({@link ProcessRecipe#needsTickCallbacks()}): la factory sort aussi
+ * de la liste active entre deux changements de phase (minSeconds, maxSeconds), programmés dans un
+ * {@link TimerWheel}; le temps passé hors liste est ajouté à elapsed au réveil. Des milliers de
+ * cuissons coûtent alors O(changements de phase) et non O(ticks).
+ *
+ * Tick parallèle (opt-in, constructeur avec pool): une factory n'est tickée que par un thread à la fois
+ * et chaque update ne touche que sa factory, donc des factories sans interaction donnent le même
+ * résultat quel que soit le découpage. Une même recette peut en revanche être appelée par plusieurs
+ * threads à la fois: toutes les recettes du monde doivent être thread-safe (voir ProcessRecipe).
+ * Les appels sont bloquants; ne pas modifier les factories (insert...) pendant un tick.
+ */
+public final class FactoryWorld {
+
+    /** Sorties d'une factory lors d'un {@link #collectOutputs()}. */
+    public record Output(Factory factory, List<MaterialInstance> materials) {}
+
+    /** Place d'une factory dans un monde (gardée par la factory pour ses réveils). */
+    static final class Entry {
+        private final FactoryWorld world;
+        private final Factory factory;
+        private int slot;            // position dans all (ordre d'ajout), -1 une fois retirée
+        private boolean active;      // dans la liste active
+        private boolean queued;      // dans la file de réveil
+        private boolean toCollect;   // a produit depuis le dernier collectOutputs
+        private double waitingSince = Double.NaN;       // attend un changement de phase depuis (temps du monde)
+        private TimerWheel.Timer<Entry> deadline;       // prochain changement de phase programmé
+        // écrits par le thread qui a tické la factory, lus après le tick
+        private boolean dormant;
+        private boolean produced;
+        private boolean waits;
+
+        Entry(FactoryWorld world, Factory factory) {
+            this.world = world;
+            this.factory = factory;
+        }
+
+        FactoryWorld world() {
+            return world;
+        }
+    }
+
+    private static final int MIN_PARTITION = 256;
+    private static final double TIMER_RESOLUTION = 1.0 / 64; // secondes par slot du premier niveau
+
+    private final HephaestusData data;
+    private final ForkJoinPool pool; // null => tick séquentiel
+    private final int partitionSize; // 0 => dérivé du nombre de factories et du parallélisme
+
+    private Entry[] all = new Entry[16];
+    private int size;
+    private int holes;   // slots libérés par remove, compactés au prochain tick
+
+    private Entry[] active = new Entry[16];
+    private int activeCount;
+
+    private final ArrayList<Entry> wakeQueue = new ArrayList<>(); // gardée par elle-même
+    private final TimerWheel<Entry> timers = new TimerWheel<>(TIMER_RESOLUTION); // gardée par elle-même
+    private final ArrayList<Entry> collect = new ArrayList<>();
+    private double time;
+
+    /** Monde tické dans le thread appelant (aucune contrainte de thread-safety sur les recettes). */
+    public FactoryWorld(HephaestusData data) {
+        this.data = Objects.requireNonNull(data, "data");
+        this.pool = null;
+        this.partitionSize = 0;
+    }
+
+    /**
+     * Monde tické en parallèle sur pool: les recettes doivent être thread-safe.
+     * partitionSize: factories par tâche (0 = automatique).
+     */
+    public FactoryWorld(HephaestusData data, ForkJoinPool pool, int partitionSize) {
+        this.data = Objects.requireNonNull(data, "data");
+        this.pool = Objects.requireNonNull(pool, "pool");
+        if (partitionSize < 0) throw new IllegalArgumentException("partitionSize must be >= 0.");
+        this.partitionSize = partitionSize;
+    }
+
+    /** Monde parallèle sur le pool commun (voir {@link #FactoryWorld(HephaestusData, ForkJoinPool, int)}). */
+    public static FactoryWorld parallel(HephaestusData data) {
+        return new FactoryWorld(data, ForkJoinPool.commonPool(), 0);
+    }
+
+    public HephaestusData data() {
+        return data;
+    }
+
+    /** Temps du monde: somme des dt passés à tick (échéances de wakeAfter). */
+    public double time() {
+        return time;
+    }
+
+    /** Crée (via le registre) et ajoute une factory. */
+    public Factory create(String factoryId) {
+        Factory f = data.createFactory(factoryId);
+        add(f);
+        return f;
+    }
+
+    /** Ajoute factory (active jusqu'à son premier tick dormant). */
+    public void add(Factory factory) {
+        Objects.requireNonNull(factory, "factory");
+        if (factory.worldEntry != null) throw new IllegalArgumentException("Factory already in a world.");
+        Entry e = new Entry(this, factory);
+        if (size == all.length) all = Arrays.copyOf(all, size * 2);
+        e.slot = size;
+        all[size++] = e;
+        factory.worldEntry = e;
+        activate(e);
+    }
+
+    /** Retire factory (ordre des autres conservé). false si absente. */
+    public boolean remove(Factory factory) {
+        Entry e = factory.worldEntry;
+        if (e == null || e.world != this) return false;
+        resume(e);
+        factory.worldEntry = null;
+        all[e.slot] = null;
+        e.slot = -1;   // ignorée ensuite par la liste active, la file de réveil et les timers
+        holes++;
+        return true;
+    }
+
+    public boolean contains(Factory factory) {
+        Entry e = factory.worldEntry;
+        return e != null && e.world == this;
+    }
+
+    public int size() {
+        return size - holes;
+    }
+
+    /** Factories non dormantes (ou réveillées) qui seront tickées au prochain tick. */
+    public int activeCount() {
+        drainWakes();
+        return activeCount;
+    }
+
+    /** Factories dans l'ordre d'ajout. */
+    public List<Factory> factories() {
+        compact();
+        List<Factory> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) out.add(all[i].factory);
+        return out;
+    }
+
+    /** update(dt, data) des factories actives (en parallèle par partitions si le monde a un pool). */
+    public void tick(float dt) {
+        compact();
+        double now = time + dt;
+        synchronized (timers) {
+            // activées avant d'avancer time: le rattrapage s'arrête au tick précédent, ce tick ajoute dt
+            timers.advance(now, t -> {
+                Entry e = t.value();
+                if (e.deadline == t) e.deadline = null;   // changement de phase
+                else if (e.slot >= 0) e.factory.wakeFromTimer(); // wakeAfter
+                if (e.slot >= 0) activate(e);
+            });
+        }
+        drainWakes();
+        time = now;
+
+        int n = activeCount;
+        int chunk = chunk(n);
+        if (n <= chunk) {
+            updateRange(0, n, dt);
+        } else {
+            pool.invoke(new TickTask(0, n, chunk, dt));
+        }
+
+        // dormantes sorties de la liste active (ordre des autres conservé);
+        // les réveils pendant le tick attendent dans wakeQueue
+        int w = 0;
+        for (int i = 0; i < n; i++) {
+            Entry e = active[i];
+            if (e.slot < 0) {
+                e.active = false;
+                continue;
+            }
+            if (e.produced && !e.toCollect) {
+                e.toCollect = true;
+                collect.add(e);
+            }
+            if (e.dormant) {
+                e.active = false;
+                if (e.waits) await(e);
+                continue;
+            }
+            active[w++] = e;
+        }
+        Arrays.fill(active, w, n, null);
+        activeCount = w;
+    }
+
+    /**
+     * extractAllOutputs() des factories qui ont produit pendant un tick (ou réveillées depuis);
+     * seules celles qui ont des sorties apparaissent, ordre d'ajout.
+     */
+    public List<Output> collectOutputs() {
+        compact();
+        drainWakes();
+        // candidats: ont produit pendant un tick, ou actives (pushEvent hors tick...)
+        for (int i = 0; i < activeCount; i++) {
+            Entry e = active[i];
+            if (!e.toCollect && !e.factory.outputs.isEmpty()) {
+                e.toCollect = true;
+                collect.add(e);
+            }
+        }
+        Entry[] candidates = new Entry[collect.size()];
+        int c = 0;
+        for (Entry e : collect) {
+            e.toCollect = false;
+            if (e.slot >= 0) candidates[c++] = e;
+        }
+        collect.clear();
+        Arrays.sort(candidates, 0, c, Comparator.comparingInt(e -> e.slot));
+
+        int chunk = chunk(c);
+        if (c <= chunk) return collectRange(candidates, 0, c);
+        return pool.invoke(new CollectTask(candidates, 0, c, chunk));
+    }
+
+    /** tick(dt) puis collectOutputs(). */
+    public List<Output> tickAndCollect(float dt) {
+        tick(dt);
+        return collectOutputs();
+    }
+
+    /** Réveil d'une factory (appelé par Factory, éventuellement depuis un thread du pool). */
+    void wake(Entry e) {
+        if (e.active) return;
+        resume(e);
+        synchronized (wakeQueue) {
+            if (e.queued) return;
+            e.queued = true;
+            wakeQueue.add(e);
+        }
+    }
+
+    void wakeAfter(Entry e, float seconds) {
+        synchronized (timers) {
+            timers.schedule(time + seconds, e);
+        }
+    }
+
+    /**
+     * Fin d'attente d'un changement de phase: temps écoulé depuis ajouté à la session,
+     * échéance annulée. Sans effet si e n'attend pas.
+     */
+    void resume(Entry e) {
+        if (Double.isNaN(e.waitingSince)) return;
+        double late = time - e.waitingSince;
+        e.waitingSince = Double.NaN;
+        synchronized (timers) {
+            timers.cancel(e.deadline);
+        }
+        e.deadline = null;
+        e.factory.catchUp((float) late);
+    }
+
+    /** e vient de sortir de la liste active en attendant un changement de phase. */
+    private void await(Entry e) {
+        e.waitingSince = time;
+        float s = e.factory.secondsToNextPhase();
+        if (s == Float.POSITIVE_INFINITY) return; // après maxSeconds: seul un réveil la relance
+        synchronized (timers) {
+            e.deadline = timers.schedule(time + s, e);
+        }
+    }
+
+    private void drainWakes() {
+        synchronized (wakeQueue) {
+            for (Entry e : wakeQueue) {
+                e.queued = false;
+                if (e.slot >= 0) activate(e);
+            }
+            wakeQueue.clear();
+        }
+    }
+
+    private void activate(Entry e) {
+        if (e.active) return;
+        resume(e);
+        e.active = true;
+        if (activeCount == active.length) active = Arrays.copyOf(active, activeCount * 2);
+        active[activeCount++] = e;
+    }
+
+    private int chunk(int n) {
+        if (pool == null) return Integer.MAX_VALUE; // une seule partition, thread appelant
+        if (partitionSize > 0) return partitionSize;
+        // ~4 partitions par thread: équilibrage sans multiplier les tâches
+        return Math.max(MIN_PARTITION, n / (pool.getParallelism() * 4) + 1);
+    }
+
+    private void compact() {
+        if (holes == 0) return;
+        int w = 0;
+        for (int r = 0; r < size; r++) {
+            Entry e = all[r];
+            if (e == null) continue;
+            e.slot = w;
+            all[w++] = e;
+        }
+        Arrays.fill(all, w, size, null);
+        size = w;
+        holes = 0;
+    }
+
+    private void updateRange(int from, int to, float dt) {
+        Entry[] es = active;
+        for (int i = from; i < to; i++) {
+            Entry e = es[i];
+            if (e.slot < 0) continue;
+            Factory f = e.factory;
+            f.update(dt, data);
+            e.produced = !f.outputs.isEmpty();
+            e.waits = f.awaitsPhase();
+            e.dormant = e.waits || f.isDormant();
+        }
+    }
+
+    private static List<Output> collectRange(Entry[] es, int from, int to) {
+        List<Output> out = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            Factory f = es[i].factory;
+            if (f.outputs.isEmpty()) continue;
+            out.add(new Output(f, f.extractAllOutputs()));
+        }
+        return out;
+    }
+
+    @SuppressWarnings("serial") // tâches ForkJoin, jamais sérialisées
+    private final class TickTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final float dt;
+
+        TickTask(int from, int to, int chunk, float dt) {
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.dt = dt;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                updateRange(from, to, dt);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TickTask(from, mid, chunk, dt), new TickTask(mid, to, chunk, dt));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class CollectTask extends RecursiveTask<List<Output>> {
+        private final Entry[] entries;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        CollectTask(Entry[] entries, int from, int to, int chunk) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected List<Output> compute() {
+            if (to - from <= chunk) return collectRange(entries, from, to);
+            int mid = (from + to) >>> 1;
+            CollectTask left = new CollectTask(entries, from, mid, chunk);
+            CollectTask right = new CollectTask(entries, mid, to, chunk);
+            left.fork();
+            List<Output> r = right.compute();
+            List<Output> l = left.join();
+            if (r.isEmpty()) return l;
+            l.addAll(r); // gauche puis droite => ordre d'ajout
+            return l;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package fr.olympus.hephaestus.factory;
+
+import fr.olympus.hephaestus.materials.MaterialInstance;
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+import fr.olympus.hephaestus.processing.ProcessContext;
+import fr.olympus.hephaestus.processing.ProcessRecipe;
+import fr.olympus.hephaestus.resources.HephaestusData;
+
+import java.util.*;
+
+/**
+ * Recettes d'une {@link Factory} préparées pour la sélection d'une session:
+ * - triées une fois (priority, specificityScore, inputCount décroissants; ordre d'ajout à égalité)
+ *   => la première qui peut démarrer est celle que le max() sur toutes choisissait
+ * - indexées par id de matériau requis (inputs ID, multiplicité comprise): canStart n'est appelé
+ *   que si contents couvre ces ids et si chaque input catégorie trouve un matériau (ANY: aucun filtre);
+ *   une recette avec prefilterByInputs() == false n'est pas filtrée
+ *
+ * Reconstruit par la factory quand sa liste de recettes change.
+ */
+final class RecipeDispatch {
+
+    static final Comparator<ProcessRecipe> ORDER = Comparator
+            .comparingInt(ProcessRecipe::priority)
+            .thenComparingInt(ProcessRecipe::specificityScore)
+            .thenComparingInt(ProcessRecipe::inputCount)
+            .reversed();
+
+    private final ProcessRecipe[] sorted;
+    private final int[] idCount;                    // par position: nombre d'ids distincts requis
+    private final MaterialMatcher[][] categories;   // par position: inputs catégorie (null si aucun)
+    private final Map<String, int[]> byId;          // id -> paires (position, quantité requise)
+
+    // tampons réutilisés d'une sélection à l'autre
+    private final int[] hits;
+    private final Map<String, Integer> present = new HashMap<>();
+
+    RecipeDispatch(List<ProcessRecipe> recipes) {
+        this.sorted = recipes.toArray(new ProcessRecipe[0]);
+        Arrays.sort(sorted, ORDER); // stable
+        int n = sorted.length;
+        this.idCount = new int[n];
+        this.hits = new int[n];
+        this.categories = new MaterialMatcher[n][];
+
+        Map<String, List<Integer>> pairs = new HashMap<>();
+        for (int p = 0; p < n; p++) {
+            if (!sorted[p].prefilterByInputs()) continue; // idCount 0, sans catégories: canStart toujours essayé
+            Map<String, Integer> need = new LinkedHashMap<>();
+            List<MaterialMatcher> cats = new ArrayList<>();
+            for (MaterialMatcher in : sorted[p].inputs()) {
+                switch (in.getKind()) {
+                    case ID -> need.merge(in.getMaterialId(), 1, Integer::sum);
+                    case ANY_OF_CATEGORIES, ALL_OF_CATEGORIES -> cats.add(in);
+                    case ANY -> { }
+                }
+            }
+            idCount[p] = need.size();
+            if (!cats.isEmpty()) categories[p] = cats.toArray(new MaterialMatcher[0]);
+            for (Map.Entry<String, Integer> e : need.entrySet()) {
+                List<Integer> l = pairs.computeIfAbsent(e.getKey(), k -> new ArrayList<>());
+                l.add(p);
+                l.add(e.getValue());
+            }
+        }
+
+        this.byId = new HashMap<>(pairs.size() * 2);
+        for (Map.Entry<String, List<Integer>> e : pairs.entrySet()) {
+            int[] a = new int[e.getValue().size()];
+            for (int i = 0; i < a.length; i++) a[i] = e.getValue().get(i);
+            byId.put(e.getKey(), a);
+        }
+    }
+
+    /** Recette prioritaire qui peut démarrer sur contents, null si aucune. */
+    ProcessRecipe select(List<MaterialInstance> contents, ProcessContext ctx, HephaestusData data) {
+        if (sorted.length == 0) return null;
+
+        present.clear();
+        for (MaterialInstance m : contents) present.merge(m.materialId(), 1, Integer::sum);
+
+        // ids requis couverts (en quantité) par recette
+        Arrays.fill(hits, 0);
+        for (Map.Entry<String, Integer> e : present.entrySet()) {
+            int[] a = byId.get(e.getKey());
+            if (a == null) continue;
+            for (int i = 0; i < a.length; i += 2) {
+                if (e.getValue() >= a[i + 1]) hits[a[i]]++;
+            }
+        }
+
+        Map<String, Set<String>> categoryKeys = null; // par id présent, chargé au premier input catégorie
+        for (int p = 0; p < sorted.length; p++) {
+            if (hits[p] != idCount[p]) continue;
+            if (categories[p] != null && data != null) {
+                if (categoryKeys == null) categoryKeys = categoryKeys(present.keySet(), data);
+                if (!categoriesCovered(categories[p], categoryKeys)) continue;
+            }
+            if (sorted[p].canStart(ctx, data)) return sorted[p];
+        }
+        return null;
+    }
+
+    private static Map<String, Set<String>> categoryKeys(Set<String> ids, HephaestusData data) {
+        Map<String, Set<String>> out = new HashMap<>();
+        for (String id : ids) {
+            out.put(id, data.getMaterials().containsKey(id) ? data.getMaterialCategoryKeys(id) : Set.of());
+        }
+        return out;
+    }
+
+    private static boolean categoriesCovered(MaterialMatcher[] inputs, Map<String, Set<String>> categoryKeys) {
+        for (MaterialMatcher in : inputs) {
+            boolean found = false;
+            for (Set<String> keys : categoryKeys.values()) {
+                if (matches(in, keys)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(MaterialMatcher in, Set<String> keys) {
+        if (in.getKind() == MaterialMatcher.Kind.ALL_OF_CATEGORIES) return keys.containsAll(in.getCategoryKeys());
+        for (String k : in.getCategoryKeys()) {
+            if (keys.contains(k)) return true;
+        }
+        return false;
+    }
+}
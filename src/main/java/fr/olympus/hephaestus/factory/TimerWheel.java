@@ -0,0 +1,156 @@
+package fr.olympus.hephaestus.factory;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Timer wheel hiérarchique (temps en secondes, découpé en unités de resolution):
+ * - niveau k: 64 slots de 64^k unités; un timer est rangé au niveau le plus bas qui couvre son échéance
+ *   et redescend (cascade) quand le curseur atteint son bloc
+ * - schedule / cancel en O(1), advance en O(unités parcourues + timers échus)
+ *
+ * Un timer échoit au premier advance(now) avec due <= now (jamais en avance, résolution sans effet
+ * sur l'instant de déclenchement). Ordre entre timers échus au même advance non spécifié.
+ * Non thread-safe.
+ */
+final class TimerWheel<T> {
+
+    /** Timer programmé (handle pour cancel). */
+    static final class Timer<T> {
+        private final double due;
+        private final long unit;
+        private final T value;
+        private Timer<T> prev;
+        private Timer<T> next;
+        private int bucket = -1;   // index dans slots, -1 hors roue (échu ou annulé)
+
+        private Timer(double due, long unit, T value) {
+            this.due = due;
+            this.unit = unit;
+            this.value = value;
+        }
+
+        double due() {
+            return due;
+        }
+
+        T value() {
+            return value;
+        }
+    }
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 5;   // 64^5 unités; au-delà: dernier niveau, re-rangé en cascade
+
+    private final double resolution;
+    private final Timer<T>[] slots;         // tête de liste par (niveau, slot)
+    private long cursor;                    // unité en cours (timers non échus de cette unité y restent)
+    private int size;
+    private final ArrayList<Timer<T>> firing = new ArrayList<>(); // échus d'un slot, avant les callbacks
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(double resolution) {
+        if (!(resolution > 0)) throw new IllegalArgumentException("resolution must be > 0.");
+        this.resolution = resolution;
+        this.slots = (Timer<T>[]) new Timer<?>[LEVELS * SLOTS];
+    }
+
+    int size() {
+        return size;
+    }
+
+    Timer<T> schedule(double due, T value) {
+        if (Double.isNaN(due)) throw new IllegalArgumentException("due cannot be NaN.");
+        long unit = due / resolution >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) Math.floor(due / resolution);
+        Timer<T> t = new Timer<>(due, unit, value);
+        place(t);
+        size++;
+        return t;
+    }
+
+    /** false si t a déjà échu ou été annulé. */
+    boolean cancel(Timer<T> t) {
+        if (t == null || t.bucket < 0) return false;
+        unlink(t);
+        size--;
+        return true;
+    }
+
+    /** Déclenche (fired) et retire tous les timers avec due <= now. */
+    void advance(double now, Consumer<Timer<T>> fired) {
+        long target = (long) Math.floor(now / resolution);
+        if (size == 0) {
+            if (target > cursor) cursor = target;
+            return;
+        }
+        while (true) {
+            fireSlot(cursor, now, fired);
+            if (cursor >= target || size == 0) break;
+            cursor++;
+            cascade();
+        }
+        if (target > cursor) cursor = target;
+    }
+
+    private void fireSlot(long unit, double now, Consumer<Timer<T>> fired) {
+        int bucket = (int) (unit & (SLOTS - 1));
+        Timer<T> t = slots[bucket];
+        while (t != null) {
+            Timer<T> next = t.next;
+            if (t.due <= now) {
+                unlink(t);
+                size--;
+                firing.add(t);
+            }
+            t = next;
+        }
+        // callbacks hors du parcours: ils peuvent programmer / annuler d'autres timers
+        for (int i = 0; i < firing.size(); i++) fired.accept(firing.get(i));
+        firing.clear();
+    }
+
+    /** Le curseur entre dans un nouveau bloc d'un ou plusieurs niveaux: ses timers redescendent. */
+    private void cascade() {
+        int top = 0;
+        while (top + 1 < LEVELS && (cursor & ((1L << (BITS * (top + 1))) - 1)) == 0) top++;
+        for (int level = top; level >= 1; level--) {
+            int bucket = level * SLOTS + (int) ((cursor >>> (BITS * level)) & (SLOTS - 1));
+            Timer<T> t = slots[bucket];
+            slots[bucket] = null;
+            while (t != null) {
+                Timer<T> next = t.next;
+                t.prev = null;
+                t.next = null;
+                t.bucket = -1;
+                place(t);
+                t = next;
+            }
+        }
+    }
+
+    private void place(Timer<T> t) {
+        long unit = Math.max(t.unit, cursor);
+        long delta = unit - cursor;
+        int level = 0;
+        while (level + 1 < LEVELS && delta >= 1L << (BITS * (level + 1))) level++;
+        if (level == LEVELS - 1 && delta >= 1L << (BITS * LEVELS)) {
+            unit = cursor + (1L << (BITS * LEVELS)) - 1; // trop loin: re-rangé à chaque tour du dernier niveau
+        }
+        int bucket = level * SLOTS + (int) ((unit >>> (BITS * level)) & (SLOTS - 1));
+        t.bucket = bucket;
+        t.prev = null;
+        t.next = slots[bucket];
+        if (t.next != null) t.next.prev = t;
+        slots[bucket] = t;
+    }
+
+    private void unlink(Timer<T> t) {
+        if (t.prev != null) t.prev.next = t.next;
+        else slots[t.bucket] = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+        t.bucket = -1;
+    }
+}
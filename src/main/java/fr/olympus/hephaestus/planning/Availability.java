@@ -0,0 +1,164 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+
+import java.util.*;
+
+/**
+ * Available-set compilé pour un {@link RecipeIndex}:
+ * - ids internés dispo => bitset (test = 1 bit)
+ * - ANY dispo => tout dispo (flag)
+ * - keys hors index (jamais input/output d'une recette) => petit set à part
+ *
+ * Les matchers catégorie sont internés comme les autres keys: même règle "même key => dispo".
+ * Immuable: à construire une fois et réutiliser tant que l'inventaire ne change pas.
+ */
+public final class Availability {
+
+    private final RecipeIndex index;
+    private final List<MaterialMatcher> matchers;
+    private final BitSet ids;
+    private final boolean any;
+    private final Set<String> otherKeys;
+    private final long fingerprint;
+    private volatile Reachability reachability; // calculée au premier usage (course bénigne)
+
+    private Availability(RecipeIndex index, List<MaterialMatcher> matchers, BitSet ids, boolean any, Set<String> otherKeys) {
+        this.index = index;
+        this.matchers = matchers;
+        this.ids = ids;
+        this.any = any;
+        this.otherKeys = otherKeys;
+        this.fingerprint = computeFingerprint(ids, any, otherKeys);
+    }
+
+    public static Availability compile(RecipeIndex index, List<MaterialMatcher> available) {
+        Objects.requireNonNull(index, "index");
+        Objects.requireNonNull(available, "available");
+
+        BitSet ids = new BitSet(index.size());
+        boolean any = false;
+        Set<String> other = new HashSet<>();
+
+        for (MaterialMatcher a : available) {
+            if (a.getKind() == MaterialMatcher.Kind.ANY) any = true;
+            int id = index.idOf(a);
+            if (id >= 0) ids.set(id);
+            else other.add(a.key());
+        }
+        return new Availability(index, List.copyOf(available), ids, any, Set.copyOf(other));
+    }
+
+    /**
+     * Nouvel available-set = celui-ci - removed + added (comparaison par key).
+     * Les matchers existants gardent leur ordre.
+     */
+    public Availability withChanges(Collection<MaterialMatcher> added, Collection<MaterialMatcher> removed) {
+        Objects.requireNonNull(added, "added");
+        Objects.requireNonNull(removed, "removed");
+
+        Set<String> removedKeys = new HashSet<>();
+        for (MaterialMatcher m : removed) removedKeys.add(m.key());
+
+        List<MaterialMatcher> next = new ArrayList<>(matchers.size() + added.size());
+        for (MaterialMatcher m : matchers) {
+            if (!removedKeys.contains(m.key())) next.add(m);
+        }
+        next.addAll(added);
+        return compile(index, next);
+    }
+
+    public RecipeIndex index() {
+        return index;
+    }
+
+    public List<MaterialMatcher> matchers() {
+        return matchers;
+    }
+
+    /** true si ANY est dispo (tout target est alors dispo). */
+    public boolean anyAvailable() {
+        return any;
+    }
+
+    /** Test direct sur un id interné de l'index. */
+    public boolean contains(int id) {
+        return any || ids.get(id);
+    }
+
+    public boolean contains(MaterialMatcher target) {
+        if (any) return true;
+        int id = index.idOf(target);
+        return id >= 0 ? ids.get(id) : otherKeys.contains(target.key());
+    }
+
+    /** Matériaux producibles + hauteurs min depuis cet available-set (une passe, gardée). */
+    Reachability reachability() {
+        Reachability r = reachability;
+        if (r == null) {
+            r = Reachability.compute(this);
+            reachability = r;
+        }
+        return r;
+    }
+
+    /** Fermeture déjà connue pour cet available-set (session: réparée depuis la précédente). */
+    void useReachability(Reachability r) {
+        reachability = r;
+    }
+
+    /** Ids internés dispo (copie), hors flag ANY. */
+    public BitSet ids() {
+        return (BitSet) ids.clone();
+    }
+
+    /**
+     * Empreinte 64 bits du contenu (ordre des matchers et doublons ignorés).
+     * Deux Availability égales ont la même empreinte; l'inverse est vérifié par equals().
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Taille approximative (en int) de ce que garde cette instance: bitset, matchers, keys hors index
+     * et Reachability si déjà calculée (l'index, partagé, n'est pas compté). Voir PlanCache.
+     */
+    long retainedInts() {
+        long n = 16 + 2L * ids.size() / 64 + 4L * matchers.size() + 8L * otherKeys.size();
+        Reachability r = reachability;
+        return r == null ? n : n + r.retainedInts();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Availability other
+                && index == other.index
+                && fingerprint == other.fingerprint
+                && any == other.any
+                && ids.equals(other.ids)
+                && otherKeys.equals(other.otherKeys);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(fingerprint);
+    }
+
+    private static long computeFingerprint(BitSet ids, boolean any, Set<String> otherKeys) {
+        long h = any ? 0x9E3779B97F4A7C15L : 0L;
+        for (long word : ids.toLongArray()) {
+            h = (h ^ word) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        long others = 0;
+        for (String k : otherKeys) others += k.hashCode(); // indépendant de l'ordre du set
+        return h ^ (others * 0x94D049BB133111EBL);
+    }
+
+    void requireIndex(RecipeIndex expected) {
+        if (index != expected) {
+            throw new IllegalArgumentException("Availability was compiled for another RecipeIndex.");
+        }
+    }
+}
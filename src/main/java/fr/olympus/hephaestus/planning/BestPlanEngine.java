@@ -0,0 +1,213 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+
+import java.util.*;
+
+/**
+ * Meilleur plan garanti (coût minimum) via Knuth / Dijkstra généralisé sur le graphe ET/OU:
+ * - matériau = noeud OU (min sur ses producteurs)
+ * - recette  = noeud ET (cost() + somme des coûts de ses inputs)
+ *
+ * Une passe = O((recettes + arcs) log matériaux), indépendante du target:
+ * le {@link Table} obtenu répond pour n'importe quel target du même available-set.
+ *
+ * Hypothèse: cost() >= 0 (sinon {@link #supported()} == false et le planner garde la DFS).
+ * Pas de maxDepth ici: c'est au planner de vérifier la hauteur du plan obtenu.
+ */
+public final class BestPlanEngine {
+
+    private static final int UNREACHED = -2;
+    private static final int AVAILABLE = -1;
+
+    private final RecipeIndex index;
+    private final RecipeGraph graph; // inputs / outputs / consommateurs par recette, en CSR
+
+    public BestPlanEngine(RecipeIndex index) {
+        this.index = Objects.requireNonNull(index, "index");
+        this.graph = index.graph();
+    }
+
+    /** false si une recette a un coût négatif (Dijkstra n'est plus exact). */
+    public boolean supported() {
+        return graph.nonNegativeCosts;
+    }
+
+    public Table solve(Availability available) {
+        return solve(available, PlanControl.none());
+    }
+
+    /**
+     * Passe interruptible: si control demande l'arrêt, la table rendue est incomplète
+     * ({@link Table#complete()} == false) mais ses plans restent valides (coûts = majorants).
+     */
+    public Table solve(Availability available, PlanControl control) {
+        Objects.requireNonNull(available, "available");
+        Objects.requireNonNull(control, "control");
+        return new Search(available, control).run();
+    }
+
+    private final class Search {
+        private static final int CHECK_EVERY = 256; // polls entre deux tests du PlanControl
+
+        final Availability available;
+        final PlanControl control;
+        final int[] dist = new int[index.size()];
+        final int[] choice = new int[index.size()];
+        final boolean[] done = new boolean[index.size()];
+
+        final int[] pending = new int[graph.recipes.length];
+        final int[] acc = new int[graph.recipes.length];
+
+        // min sur les recettes "ANY" prêtes (seul producteur possible d'un target hors index)
+        int anyCost = Integer.MAX_VALUE;
+        int anyRecipe = UNREACHED;
+
+        final PriorityQueue<long[]> queue = new PriorityQueue<>(Comparator.comparingLong(e -> e[0]));
+
+        Search(Availability available, PlanControl control) {
+            this.available = available;
+            this.control = control;
+            Arrays.fill(dist, Integer.MAX_VALUE);
+            Arrays.fill(choice, UNREACHED);
+        }
+
+        Table run() {
+            if (available.anyAvailable()) {
+                return new Table(BestPlanEngine.this, available, dist, choice, 0, UNREACHED, true);
+            }
+            BitSet ids = available.ids();
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                relax(id, 0, AVAILABLE);
+            }
+
+            for (int r = 0; r < pending.length; r++) {
+                pending[r] = graph.inputStart[r + 1] - graph.inputStart[r];
+                acc[r] = graph.cost[r];
+                if (pending[r] == 0) ready(r);
+            }
+
+            int polls = 0;
+            while (!queue.isEmpty()) {
+                if (polls++ % CHECK_EVERY == 0 && control.stopRequested()) {
+                    // choix déjà faits = recettes prêtes (inputs fixés) => plans valides, pas optimaux
+                    return new Table(BestPlanEngine.this, available, dist, choice, anyCost, anyRecipe, false);
+                }
+                long[] e = queue.poll();
+                int id = (int) e[1];
+                if (done[id] || e[0] != dist[id]) continue;
+                done[id] = true;
+
+                for (int c = graph.consumerStart[id]; c < graph.consumerStart[id + 1]; c++) {
+                    int r = graph.consumers[c];
+                    acc[r] = saturatedAdd(acc[r], dist[id]);
+                    if (--pending[r] == 0) ready(r);
+                }
+            }
+
+            return new Table(BestPlanEngine.this, available, dist, choice, anyCost, anyRecipe, true);
+        }
+
+        private void ready(int r) {
+            int c = acc[r];
+            for (int o = graph.outputStart[r]; o < graph.outputStart[r + 1]; o++) relax(graph.outputs[o], c, r);
+
+            if (graph.producesAny[r]) {
+                if (c < anyCost) {
+                    anyCost = c;
+                    anyRecipe = r;
+                }
+                for (int id = 0; id < dist.length; id++) relax(id, c, r);
+            }
+        }
+
+        private void relax(int id, int cost, int recipe) {
+            if (done[id]) return;
+            // à coût égal: dispo d'abord, puis la recette la plus tôt dans la liste
+            if (cost < dist[id] || (cost == dist[id] && choice[id] != AVAILABLE && recipe < choice[id])) {
+                dist[id] = cost;
+                choice[id] = recipe;
+                queue.add(new long[]{cost, id});
+            }
+        }
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        long s = (long) a + b;
+        return s > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) s;
+    }
+
+    /**
+     * Résultat d'une passe pour un available-set: coût min + recette choisie par matériau.
+     * Immuable => à garder en cache tant que l'available-set (et les recettes) ne changent pas.
+     */
+    public static final class Table {
+        private final BestPlanEngine engine;
+        private final Availability available;
+        private final int[] dist;
+        private final int[] choice;
+        private final int anyCost;
+        private final int anyRecipe;
+        private final boolean complete;
+
+        private Table(BestPlanEngine engine, Availability available,
+                      int[] dist, int[] choice, int anyCost, int anyRecipe, boolean complete) {
+            this.engine = engine;
+            this.available = available;
+            this.dist = dist;
+            this.choice = choice;
+            this.anyCost = anyCost;
+            this.anyRecipe = anyRecipe;
+            this.complete = complete;
+        }
+
+        public Availability available() {
+            return available;
+        }
+
+        /** false si la passe a été interrompue: coûts = majorants, plans non prouvés optimaux. */
+        public boolean complete() {
+            return complete;
+        }
+
+        /** Coût min par id interné (Integer.MAX_VALUE si non atteint). Partagé: ne pas modifier. */
+        int[] costsById() {
+            return dist;
+        }
+
+        /** Coût minimum pour obtenir target, vide si impossible. */
+        public OptionalInt costOf(MaterialMatcher target) {
+            if (available.contains(target)) return OptionalInt.of(0);
+            int id = engine.index.idOf(target);
+            if (id < 0) return anyRecipe == UNREACHED ? OptionalInt.empty() : OptionalInt.of(anyCost);
+            return choice[id] == UNREACHED ? OptionalInt.empty() : OptionalInt.of(dist[id]);
+        }
+
+        /** Plan de coût minimum (sous-plans partagés: un seul noeud par matériau intermédiaire). */
+        public Optional<CraftPlanner.CraftPlan> planFor(MaterialMatcher target) {
+            if (available.contains(target)) return Optional.of(CraftPlanner.CraftPlan.EMPTY);
+
+            int id = engine.index.idOf(target);
+            int recipe = id < 0 ? anyRecipe : choice[id];
+            if (recipe == UNREACHED) return Optional.empty();
+
+            return Optional.of(buildRecipe(recipe, new CraftPlanner.CraftPlan[dist.length]));
+        }
+
+        private CraftPlanner.CraftPlan buildRecipe(int recipe, CraftPlanner.CraftPlan[] built) {
+            RecipeGraph g = engine.graph;
+            int inStart = g.inputStart[recipe];
+            CraftPlanner.CraftPlan[] inputs = new CraftPlanner.CraftPlan[g.inputStart[recipe + 1] - inStart];
+            for (int j = 0; j < inputs.length; j++) {
+                int in = g.inputs[inStart + j];
+                if (built[in] == null) {
+                    built[in] = choice[in] == AVAILABLE
+                            ? CraftPlanner.CraftPlan.EMPTY
+                            : buildRecipe(choice[in], built);
+                }
+                inputs[j] = built[in];
+            }
+            return CraftPlanner.CraftPlan.of(g, recipe, inputs);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+import fr.olympus.hephaestus.processing.ProcessRecipe;
+
+import java.util.*;
+
+/**
+ * Quantités pour fabriquer amount unités d'un target avec un plan donné:
+ * - runs: nombre d'exécutions de chaque recette (ProcessRecipe.outputAmount, arrondi au-dessus)
+ * - rawMaterials: matériaux consommés depuis l'inventaire (feuilles du plan)
+ * - surplus: unités produites en trop (arrondis, sous-produits)
+ *
+ * Une passe topologique sur le DAG du plan (sous-plans partagés = un seul noeud, demandes cumulées
+ * avant arrondi): coût linéaire en taille du plan, indépendant de amount.
+ * Les surplus d'une branche ne sont pas réutilisés par une autre.
+ */
+public final class BillOfMaterials {
+
+    private final MaterialMatcher target;
+    private final long amount;
+    private final Map<ProcessRecipe, Long> runs;
+    private final Map<MaterialMatcher, Long> rawMaterials;
+    private final Map<MaterialMatcher, Long> surplus;
+
+    private BillOfMaterials(MaterialMatcher target, long amount, Map<ProcessRecipe, Long> runs,
+                            Map<MaterialMatcher, Long> rawMaterials, Map<MaterialMatcher, Long> surplus) {
+        this.target = target;
+        this.amount = amount;
+        this.runs = Collections.unmodifiableMap(runs);
+        this.rawMaterials = Collections.unmodifiableMap(rawMaterials);
+        this.surplus = Collections.unmodifiableMap(surplus);
+    }
+
+    /** plan doit produire target (plan du planner pour ce target); plan vide => tout vient de l'inventaire. */
+    public static BillOfMaterials of(CraftPlanner.CraftPlan plan, MaterialMatcher target, long amount) {
+        Objects.requireNonNull(plan, "plan");
+        Objects.requireNonNull(target, "target");
+        if (amount <= 0) throw new IllegalArgumentException("amount must be > 0.");
+
+        Map<ProcessRecipe, Long> runs = new LinkedHashMap<>();
+        Map<MaterialMatcher, Long> raw = new LinkedHashMap<>();
+        Map<MaterialMatcher, Long> surplus = new LinkedHashMap<>();
+
+        if (isLeaf(plan)) {
+            raw.put(target, amount);
+            return new BillOfMaterials(target, amount, runs, raw, surplus);
+        }
+
+        // ordre topologique (parents d'abord): un noeud n'est traité qu'une fois toute sa demande connue
+        List<CraftPlanner.CraftPlan> order = topologicalOrder(plan);
+        IdentityHashMap<CraftPlanner.CraftPlan, Map<MaterialMatcher, Long>> demand = new IdentityHashMap<>();
+        demand.put(plan, new LinkedHashMap<>(Map.of(target, amount)));
+
+        for (CraftPlanner.CraftPlan node : order) {
+            ProcessRecipe recipe = node.recipe();
+            Map<MaterialMatcher, Long> wanted = demand.remove(node);
+
+            long n = 0;
+            for (Map.Entry<MaterialMatcher, Long> e : wanted.entrySet()) {
+                n = Math.max(n, ceilDiv(e.getValue(), outputAmount(recipe, e.getKey())));
+            }
+            runs.merge(recipe, n, Long::sum);
+
+            for (Map.Entry<MaterialMatcher, Long> e : wanted.entrySet()) {
+                long extra = Math.multiplyExact(n, outputAmount(recipe, e.getKey())) - e.getValue();
+                if (extra > 0) surplus.merge(e.getKey(), extra, Long::sum);
+            }
+            // sous-produits (un output répété dans outputs() n'est compté qu'une fois, via outputAmount)
+            for (MaterialMatcher out : new LinkedHashSet<>(recipe.outputs())) {
+                if (out.getKind() == MaterialMatcher.Kind.ANY || wanted.containsKey(out)) continue;
+                surplus.merge(out, Math.multiplyExact(n, recipe.outputAmount(out)), Long::sum);
+            }
+
+            List<CraftPlanner.CraftPlan> inputs = node.inputs();
+            for (int i = 0; i < inputs.size(); i++) {
+                MaterialMatcher material = recipe.inputs().get(i);
+                long need = Math.multiplyExact(n, recipe.inputAmount(i));
+                CraftPlanner.CraftPlan sub = inputs.get(i);
+                if (isLeaf(sub)) {
+                    raw.merge(material, need, Long::sum);
+                } else {
+                    demand.computeIfAbsent(sub, s -> new LinkedHashMap<>()).merge(material, need, Long::sum);
+                }
+            }
+        }
+        return new BillOfMaterials(target, amount, runs, raw, surplus);
+    }
+
+    private static boolean isLeaf(CraftPlanner.CraftPlan plan) {
+        if (plan.recipe() != null) return false;
+        if (plan.stepCount() > 0) {
+            throw new IllegalArgumentException("Flat plans (built from a step list) have no input structure.");
+        }
+        return true;
+    }
+
+    /** Post-ordre itératif par identité (sous-plans partagés visités une fois), renversé. */
+    private static List<CraftPlanner.CraftPlan> topologicalOrder(CraftPlanner.CraftPlan root) {
+        List<CraftPlanner.CraftPlan> post = new ArrayList<>();
+        Set<CraftPlanner.CraftPlan> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<CraftPlanner.CraftPlan> stack = new ArrayDeque<>();
+        ArrayDeque<Integer> next = new ArrayDeque<>();
+        seen.add(root);
+        stack.push(root);
+        next.push(0);
+
+        while (!stack.isEmpty()) {
+            CraftPlanner.CraftPlan node = stack.peek();
+            List<CraftPlanner.CraftPlan> inputs = node.inputs();
+            int i = next.pop();
+            if (i < inputs.size()) {
+                next.push(i + 1);
+                CraftPlanner.CraftPlan sub = inputs.get(i);
+                if (!isLeaf(sub) && seen.add(sub)) {
+                    stack.push(sub);
+                    next.push(0);
+                }
+                continue;
+            }
+            stack.pop();
+            post.add(node);
+        }
+        Collections.reverse(post);
+        return post;
+    }
+
+    private static int outputAmount(ProcessRecipe recipe, MaterialMatcher material) {
+        int out = recipe.outputAmount(material);
+        if (out <= 0) {
+            throw new IllegalArgumentException("Recipe " + recipe.id() + " does not produce " + material + ".");
+        }
+        return out;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return -Math.floorDiv(-a, b);
+    }
+
+    public MaterialMatcher target() {
+        return target;
+    }
+
+    public long amount() {
+        return amount;
+    }
+
+    /** Exécutions par recette, ordre topologique (recette finale d'abord). */
+    public Map<ProcessRecipe, Long> runs() {
+        return runs;
+    }
+
+    public long runsOf(ProcessRecipe recipe) {
+        return runs.getOrDefault(recipe, 0L);
+    }
+
+    /** Matériaux pris dans l'inventaire, cumulés. */
+    public Map<MaterialMatcher, Long> rawMaterials() {
+        return rawMaterials;
+    }
+
+    /** Unités produites et non consommées (arrondis, sous-produits). */
+    public Map<MaterialMatcher, Long> surplus() {
+        return surplus;
+    }
+
+    /** Somme des cost() x exécutions. */
+    public long totalCost() {
+        long total = 0;
+        for (Map.Entry<ProcessRecipe, Long> e : runs.entrySet()) {
+            total = Math.addExact(total, Math.multiplyExact((long) e.getKey().cost(), e.getValue()));
+        }
+        return total;
+    }
+}
@@ -2,8 +2,13 @@ package fr.olympus.hephaestus.planning;
 
 import fr.olympus.hephaestus.processing.MaterialMatcher;
 import fr.olympus.hephaestus.processing.ProcessRecipe;
+import fr.olympus.hephaestus.processing.TimeWindow;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Planner backward:
@@ -11,38 +16,69 @@ import java.util.*;
  * - cherche toutes les recettes qui peuvent produire ce target
  * - planifie récursivement leurs inputs
  * - combine les plans des inputs (cross product) => embranchements
+ *   (les plans référencent leurs sous-plans, voir {@link CraftPlan})
+ *
+ * Cycles de recettes: un matériau n'est jamais dérivé de lui-même sur un chemin. Hors des
+ * composantes cycliques du graphe (voir {@link RecipeGraph}), un sous-target ne dépend pas
+ * du chemin; dedans, le memo est aussi indexé par les ancêtres de la composante.
+ *
+ * BEST_ONLY passe par {@link BestPlanEngine} (plus court hyperchemin, optimal garanti),
+ * TOP_K par une fusion paresseuse ({@link KBestMerge}), ALL par le cross product complet
+ * (ou à la demande, en coût croissant: {@link #planStream}), PARETO par des fronts non dominés
+ * (coût, durée, niveau d'usine: {@link ParetoFront}).
  */
 public final class CraftPlanner {
 
     public enum Mode {
         BEST_ONLY,
         TOP_K,
-        ALL
+        ALL,
+        PARETO   // plans non dominés sur (coût, durée, niveau d'usine), voir planPareto
     }
 
     public static final class PlanOptions {
         public final int maxDepth;     // profondeur max de dépendances
         public final int maxPlans;     // limite globale de plans générés (surtout pour ALL)
         public final boolean deduplicate; // supprime doublons (signature steps)
+        public final boolean collectStats; // PlanStats dans les PlanResult (voir withStats)
 
         public PlanOptions(int maxDepth, int maxPlans, boolean deduplicate) {
+            this(maxDepth, maxPlans, deduplicate, false);
+        }
+
+        private PlanOptions(int maxDepth, int maxPlans, boolean deduplicate, boolean collectStats) {
             if (maxDepth <= 0) throw new IllegalArgumentException("maxDepth must be > 0.");
             if (maxPlans <= 0) throw new IllegalArgumentException("maxPlans must be > 0.");
             this.maxDepth = maxDepth;
             this.maxPlans = maxPlans;
             this.deduplicate = deduplicate;
+            this.collectStats = collectStats;
         }
 
         public static PlanOptions safeDefaults() {
             return new PlanOptions(16, 5000, true);
         }
+
+        /**
+         * Mêmes options + mesures {@link PlanStats} dans les {@link PlanResult}
+         * (requêtes avec PlanControl, sans cache). Sans cet appel, rien n'est mesuré.
+         */
+        public PlanOptions withStats() {
+            return new PlanOptions(maxDepth, maxPlans, deduplicate, true);
+        }
     }
 
     public static final class PlanStep {
         public final ProcessRecipe recipe;
+        final int recipeIndex; // position dans le RecipeGraph qui l'a créé, -1 sinon
 
         public PlanStep(ProcessRecipe recipe) {
+            this(recipe, -1);
+        }
+
+        PlanStep(ProcessRecipe recipe, int recipeIndex) {
             this.recipe = Objects.requireNonNull(recipe, "recipe");
+            this.recipeIndex = recipeIndex;
         }
 
         @Override
@@ -51,36 +87,432 @@ public final class CraftPlanner {
         }
     }
 
+    /**
+     * Plan immuable et partagé: une étape (recette) + les sous-plans de ses inputs, par référence.
+     * - aucun plan ne recopie les étapes de ses sous-plans
+     * - steps() / signature() sont calculés à la demande puis gardés (course bénigne: valeurs immuables)
+     * - signatureHash() est calculé à la construction à partir des hash des sous-plans
+     * - minSeconds: durée min (TimeWindow.minSeconds), inputs fabriqués en parallèle => chemin critique
+     * - factoryLevel: plus haut minFactoryLevel requis par une étape (Integer.MIN_VALUE: aucun)
+     */
     public static final class CraftPlan {
+
+        static final CraftPlan EMPTY = new CraftPlan(0, List.of());
+
+        private static final CraftPlan[] NO_INPUTS = new CraftPlan[0];
+
+        // hash polynomial de la suite d'ids d'étapes: H(A+B) = H(A) * P^|B| + H(B)
+        private static final long P = 0x9E3779B97F4A7C15L;
+
         public final int totalCost;
-        public final List<PlanStep> steps;
+        public final float minSeconds;
+        public final int factoryLevel;
 
+        private final PlanStep step;        // null => plan "plat" (steps fournis) ou feuille dispo
+        private final CraftPlan[] inputs;   // un sous-plan par input de la recette
+        private final int stepCount;
+        private final long hash;
+        private final long pow;             // P^stepCount
+
+        // niveaux de recettes avec inputs (feuille dispo = 0) => marge de profondeur requise
+        final int height;
+
+        private List<PlanStep> steps;
+        private String signature;
+
+        /** Plan plat: pas de structure => étapes supposées séquentielles (minSeconds = somme). */
         public CraftPlan(int totalCost, List<PlanStep> steps) {
             this.totalCost = totalCost;
+            this.step = null;
+            this.inputs = NO_INPUTS;
             this.steps = List.copyOf(steps);
+            this.stepCount = this.steps.size();
+            this.height = 0;
+
+            long h = 0;
+            long p = 1;
+            float seconds = 0f;
+            int level = Integer.MIN_VALUE;
+            for (PlanStep s : this.steps) {
+                h = h * P + stepHash(s.recipe);
+                p *= P;
+                TimeWindow window = s.recipe.timeWindowOrNull();
+                if (window != null) seconds += window.minSeconds();
+                if (s.recipe.selector() != null) level = Math.max(level, s.recipe.selector().minFactoryLevel());
+            }
+            this.hash = h;
+            this.pow = p;
+            this.minSeconds = seconds;
+            this.factoryLevel = level;
+        }
+
+        private CraftPlan(PlanStep step, CraftPlan[] inputs, int totalCost, float minSeconds, int factoryLevel,
+                          int height, int stepCount, long hash, long pow) {
+            this.totalCost = totalCost;
+            this.minSeconds = minSeconds;
+            this.factoryLevel = factoryLevel;
+            this.step = step;
+            this.inputs = inputs;
+            this.height = height;
+            this.stepCount = stepCount;
+            this.hash = hash;
+            this.pow = pow;
+        }
+
+        /**
+         * Plan "recette r du graphe appliquée aux sous-plans inputs" (inputs dans l'ordre de r.inputs()).
+         * Coût, hash et PlanStep lus dans g: aucun appel sur la recette, PlanStep partagé.
+         */
+        static CraftPlan of(RecipeGraph g, int r, CraftPlan[] inputs) {
+            int cost = g.cost[r];
+            float seconds = 0f;
+            int level = g.factoryLevel[r];
+            int h = 0;
+            int count = 1;
+            long hash = 0;
+            long pow = 1;
+            for (CraftPlan in : inputs) {
+                cost += in.totalCost;
+                seconds = Math.max(seconds, in.minSeconds);
+                level = Math.max(level, in.factoryLevel);
+                h = Math.max(h, in.height + 1);
+                count += in.stepCount;
+                hash = hash * in.pow + in.hash;
+                pow *= in.pow;
+            }
+            hash = hash * P + g.stepHash[r];
+            pow *= P;
+            return new CraftPlan(g.steps[r], inputs, cost, seconds + g.minSeconds[r], level, h, count, hash, pow);
+        }
+
+        static long stepHash(ProcessRecipe r) {
+            long z = r.id().hashCode() + 0x632BE59BD9B4E019L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        /** Étapes à plat (inputs puis recette, récursivement). Construit au premier appel. */
+        public List<PlanStep> steps() {
+            List<PlanStep> s = steps;
+            if (s == null) {
+                List<PlanStep> out = new ArrayList<>(stepCount);
+                appendSteps(out);
+                s = List.copyOf(out);
+                steps = s;
+            }
+            return s;
+        }
+
+        private void appendSteps(List<PlanStep> out) {
+            if (steps != null) {
+                out.addAll(steps);
+                return;
+            }
+            for (CraftPlan in : inputs) in.appendSteps(out);
+            if (step != null) out.add(step);
+        }
+
+        /** Recette de la dernière étape, null pour un plan vide / plat. */
+        public ProcessRecipe recipe() {
+            return step == null ? null : step.recipe;
+        }
+
+        /** Position de recipe() dans le RecipeGraph qui a construit ce plan, -1 si aucune. */
+        int recipeIndex() {
+            return step == null ? -1 : step.recipeIndex;
+        }
+
+        /** Sous-plans partagés de chaque input de recipe(). */
+        public List<CraftPlan> inputs() {
+            return List.of(inputs);
+        }
+
+        public int stepCount() {
+            return stepCount;
+        }
+
+        /**
+         * Hash 64 bits de signature(): deux plans de même signature ont le même hash.
+         * Précalculé, combiné depuis les sous-plans (aucune String construite).
+         */
+        public long signatureHash() {
+            return hash;
+        }
+
+        /** Même suite d'étapes que other (== signature() égales). */
+        boolean sameSteps(CraftPlan other) {
+            if (this == other) return true;
+            if (hash != other.hash || stepCount != other.stepCount) return false;
+
+            // même recette sur les mêmes sous-plans (références) => inutile d'aplatir
+            if (step != null && other.step != null && step.recipe == other.step.recipe
+                    && inputs.length == other.inputs.length) {
+                boolean same = true;
+                for (int i = 0; i < inputs.length && same; i++) same = inputs[i] == other.inputs[i];
+                if (same) return true;
+            }
+
+            List<PlanStep> a = steps();
+            List<PlanStep> b = other.steps();
+            for (int i = 0; i < a.size(); i++) {
+                if (!a.get(i).recipe.id().equals(b.get(i).recipe.id())) return false;
+            }
+            return true;
         }
 
         public String signature() {
-            StringBuilder sb = new StringBuilder();
-            for (PlanStep s : steps) {
-                sb.append(s.recipe.id()).append("->");
+            String sig = signature;
+            if (sig == null) {
+                StringBuilder sb = new StringBuilder();
+                for (PlanStep s : steps()) {
+                    sb.append(s.recipe.id()).append("->");
+                }
+                sig = sb.toString();
+                signature = sig;
             }
-            return sb.toString();
+            return sig;
         }
     }
 
-    private final List<ProcessRecipe> recipes;
+    /**
+     * Résultat "anytime" (requêtes avec {@link PlanControl}):
+     * - plans: meilleurs plans trouvés, triés par coût
+     * - provenOptimal: recherche complète => plans exacts (BEST_ONLY / TOP_K: optimaux, ALL: énumération complète,
+     *   PARETO: front complet)
+     * - interrupted: arrêt par deadline / annulation (plans = meilleur trouvé jusque-là)
+     * - stats: mesures de la requête si {@link PlanOptions#withStats()}, null sinon
+     */
+    public record PlanResult(List<CraftPlan> plans, boolean provenOptimal, boolean interrupted, PlanStats stats) {
+        public PlanResult(List<CraftPlan> plans, boolean provenOptimal, boolean interrupted) {
+            this(plans, provenOptimal, interrupted, null);
+        }
+
+        public Optional<CraftPlan> best() {
+            return plans.isEmpty() ? Optional.empty() : Optional.of(plans.get(0));
+        }
+    }
+
+    private final RecipeIndex index;
+    private final RecipeGraph graph;
+    private final BestPlanEngine bestEngine;
+    private final PlanCache cache;      // null => pas de cache entre requêtes
+    private final long cacheVersion;    // version des recettes du cache à la construction
+
+    private final LongAdder memoHits = new LongAdder();
+    private final LongAdder memoMisses = new LongAdder();
 
     public CraftPlanner(List<ProcessRecipe> recipes) {
-        this.recipes = List.copyOf(recipes);
+        this(new RecipeIndex(recipes));
+    }
+
+    /** Réutilise un index déjà construit (partagé avec d'autres planners). */
+    public CraftPlanner(RecipeIndex index) {
+        this(index, null);
+    }
+
+    /**
+     * Planner avec cache de résultats entre requêtes (peut être partagé entre planners).
+     * Le cache doit être invalidé quand les recettes changent, voir {@link PlanCache#forData}.
+     * L'index (donc le planner) ne suit pas ces changements: après un nouvel enregistrement de recette,
+     * reconstruire index et planner; une requête en cache de l'ancien planner lève IllegalStateException.
+     */
+    public CraftPlanner(RecipeIndex index, PlanCache cache) {
+        this.index = Objects.requireNonNull(index, "index");
+        this.graph = index.graph();
+        this.bestEngine = new BestPlanEngine(index);
+        this.cache = cache;
+        this.cacheVersion = cache == null ? 0 : cache.version();
+    }
+
+    public RecipeIndex index() {
+        return index;
+    }
+
+    /** Cache entre requêtes, null si absent. */
+    public PlanCache cache() {
+        return cache;
+    }
+
+    /** Revisites servies par le memo (cumul depuis la création / le dernier reset). */
+    public long memoHits() {
+        return memoHits.sum();
+    }
+
+    /** Sous-targets réellement résolus (cumul). */
+    public long memoMisses() {
+        return memoMisses.sum();
+    }
+
+    public void resetMemoCounters() {
+        memoHits.reset();
+        memoMisses.reset();
     }
 
-    /** 1 seul plan (le meilleur) */
+    /**
+     * Compile un available-set pour cet index (bitset d'ids internés).
+     * À réutiliser pour planifier plusieurs fois contre le même inventaire.
+     */
+    public Availability compile(List<MaterialMatcher> available) {
+        return Availability.compile(index, available);
+    }
+
+    /** 1 seul plan (le meilleur, coût minimum garanti) */
     public Optional<CraftPlan> planBest(MaterialMatcher target,
                                         List<MaterialMatcher> available,
                                         PlanOptions options) {
-        List<CraftPlan> list = plan(target, available, Mode.BEST_ONLY, 1, options);
-        return list.isEmpty() ? Optional.empty() : Optional.of(list.get(0));
+        return planBest(target, compile(available), options);
+    }
+
+    public Optional<CraftPlan> planBest(MaterialMatcher target,
+                                        Availability available,
+                                        PlanOptions options) {
+        Objects.requireNonNull(target, "target");
+        Objects.requireNonNull(available, "available");
+        Objects.requireNonNull(options, "options");
+        available.requireIndex(index);
+
+        PlanCache.Key key = cache == null ? null : cacheKey(target, available, Mode.BEST_ONLY, 1, options);
+        if (key != null) {
+            List<CraftPlan> hit = cache.get(key);
+            if (hit != null) return firstOf(hit);
+        }
+
+        Optional<CraftPlan> best = best(target, available, options, PlanControl.none()).best();
+        if (key != null) cache.put(key, best.map(List::of).orElse(List.of()));
+        return best;
+    }
+
+    /**
+     * Meilleur plan trouvable avant la deadline / l'annulation de control (sans cache).
+     * Passe Knuth interrompue: plan valide (majorant) si le target est déjà atteint, non prouvé optimal.
+     */
+    public PlanResult planBest(MaterialMatcher target,
+                               Availability available,
+                               PlanOptions options,
+                               PlanControl control) {
+        Objects.requireNonNull(target, "target");
+        Objects.requireNonNull(available, "available");
+        Objects.requireNonNull(options, "options");
+        Objects.requireNonNull(control, "control");
+        available.requireIndex(index);
+        return best(target, available, options, control);
+    }
+
+    private PlanResult best(MaterialMatcher target, Availability available, PlanOptions options, PlanControl control) {
+        PlanStats.Recorder rec = recorder(options);
+        if (!bestEngine.supported()) {
+            return search(target, available, Mode.TOP_K, 1, options, control, rec);
+        }
+        return bestFromTable(target, timedTable(available, control, rec), options, control, rec);
+    }
+
+    /** Clé de cache; un planner antérieur au dernier changement de recettes remplirait le cache de plans périmés. */
+    private PlanCache.Key cacheKey(MaterialMatcher target, Availability available, Mode mode, int k, PlanOptions options) {
+        if (cache.version() != cacheVersion) {
+            throw new IllegalStateException("Recipes changed since this planner was built: rebuild its RecipeIndex.");
+        }
+        return PlanCache.Key.of(target, available, mode, k, options);
+    }
+
+    private static PlanStats.Recorder recorder(PlanOptions options) {
+        return options.collectStats ? new PlanStats.Recorder() : null;
+    }
+
+    private BestPlanEngine.Table timedTable(Availability available, PlanControl control, PlanStats.Recorder rec) {
+        if (rec == null) return table(available, control);
+        long t0 = System.nanoTime();
+        BestPlanEngine.Table table = table(available, control);
+        rec.tableNanos += System.nanoTime() - t0;
+        return table;
+    }
+
+    /** Table Knuth: celle gardée par l'Availability sans contrôle, une passe interruptible sinon. */
+    private BestPlanEngine.Table table(Availability available, PlanControl control) {
+        return control == PlanControl.none() ? available.reachability().table() : bestEngine.solve(available, control);
+    }
+
+    /**
+     * Table "meilleur coût par matériau" pour un available-set.
+     * À réutiliser (cache) tant que l'inventaire ne change pas: 1 passe pour tous les targets.
+     * Jamais null: avec des coûts négatifs ({@link BestPlanEngine#supported()} == false), l'Availability
+     * ne garde pas de table et une passe est calculée à chaque appel, sans garantie d'optimalité.
+     */
+    public BestPlanEngine.Table bestPlanTable(List<MaterialMatcher> available) {
+        return bestPlanTable(compile(available));
+    }
+
+    public BestPlanEngine.Table bestPlanTable(Availability available) {
+        available.requireIndex(index);
+        BestPlanEngine.Table table = available.reachability().table();
+        return table != null ? table : bestEngine.solve(available);
+    }
+
+    /**
+     * Matériaux producibles et hauteurs min pour un available-set (gardé par l'Availability,
+     * partagé avec les requêtes qui l'utilisent).
+     */
+    public Reachability reachability(Availability available) {
+        Objects.requireNonNull(available, "available");
+        available.requireIndex(index);
+        return available.reachability();
+    }
+
+    /**
+     * Quantités pour amount unités de target via le meilleur plan (coût d'une exécution, voir planBest):
+     * exécutions par recette, matériaux consommés, surplus. Vide si target n'est pas fabricable.
+     */
+    public Optional<BillOfMaterials> planBill(MaterialMatcher target,
+                                              List<MaterialMatcher> available,
+                                              long amount,
+                                              PlanOptions options) {
+        return planBill(target, compile(available), amount, options);
+    }
+
+    public Optional<BillOfMaterials> planBill(MaterialMatcher target,
+                                              Availability available,
+                                              long amount,
+                                              PlanOptions options) {
+        if (amount <= 0) throw new IllegalArgumentException("amount must be > 0.");
+        return planBest(target, available, options).map(p -> BillOfMaterials.of(p, target, amount));
+    }
+
+    /** Comme planBest, à partir d'une table déjà calculée. */
+    public Optional<CraftPlan> planBest(MaterialMatcher target,
+                                        BestPlanEngine.Table table,
+                                        PlanOptions options) {
+        Objects.requireNonNull(target, "target");
+        Objects.requireNonNull(table, "table");
+        Objects.requireNonNull(options, "options");
+        table.available().requireIndex(index);
+
+        PlanCache.Key key = cache == null ? null : cacheKey(target, table.available(), Mode.BEST_ONLY, 1, options);
+        if (key != null) {
+            List<CraftPlan> hit = cache.get(key);
+            if (hit != null) return firstOf(hit);
+        }
+
+        Optional<CraftPlan> best = bestFromTable(target, table, options, PlanControl.none(), null).best();
+        if (key != null) cache.put(key, best.map(List::of).orElse(List.of()));
+        return best;
+    }
+
+    private PlanResult bestFromTable(MaterialMatcher target,
+                                     BestPlanEngine.Table table,
+                                     PlanOptions options,
+                                     PlanControl control,
+                                     PlanStats.Recorder rec) {
+        Optional<CraftPlan> best = table.planFor(target);
+        if (best.isEmpty() || best.get().height <= options.maxDepth) {
+            return new PlanResult(best.map(List::of).orElse(List.of()), table.complete(), !table.complete(),
+                    rec == null ? null : rec.snapshot());
+        }
+        // optimum trop profond pour maxDepth => recherche bornée (TOP_K k=1 reste exacte)
+        return search(target, table.available(), Mode.TOP_K, 1, options, control, rec);
+    }
+
+    private static Optional<CraftPlan> firstOf(List<CraftPlan> plans) {
+        return plans.isEmpty() ? Optional.empty() : Optional.of(plans.get(0));
     }
 
     /** X meilleurs plans */
@@ -88,230 +520,931 @@ public final class CraftPlanner {
                                     List<MaterialMatcher> available,
                                     int k,
                                     PlanOptions options) {
+        return planTopK(target, compile(available), k, options);
+    }
+
+    public List<CraftPlan> planTopK(MaterialMatcher target,
+                                    Availability available,
+                                    int k,
+                                    PlanOptions options) {
         if (k <= 0) throw new IllegalArgumentException("k must be > 0.");
         return plan(target, available, Mode.TOP_K, k, options);
     }
 
+    /** planTopK anytime (sans cache): provenOptimal si la recherche n'a rien coupé. */
+    public PlanResult planTopK(MaterialMatcher target,
+                               Availability available,
+                               int k,
+                               PlanOptions options,
+                               PlanControl control) {
+        if (k <= 0) throw new IllegalArgumentException("k must be > 0.");
+        return controlled(target, available, Mode.TOP_K, k, options, control);
+    }
+
     /** Toutes les routes possibles (dans les limites options.maxPlans / maxDepth) */
     public List<CraftPlan> planAll(MaterialMatcher target,
                                    List<MaterialMatcher> available,
                                    PlanOptions options) {
+        return planAll(target, compile(available), options);
+    }
+
+    public List<CraftPlan> planAll(MaterialMatcher target,
+                                   Availability available,
+                                   PlanOptions options) {
         return plan(target, available, Mode.ALL, Integer.MAX_VALUE, options);
     }
 
-    private List<CraftPlan> plan(MaterialMatcher target,
-                                 List<MaterialMatcher> available,
-                                 Mode mode,
-                                 int k,
-                                 PlanOptions options) {
+    /** planAll anytime (sans cache): provenOptimal si l'énumération est complète. */
+    public PlanResult planAll(MaterialMatcher target,
+                              Availability available,
+                              PlanOptions options,
+                              PlanControl control) {
+        return controlled(target, available, Mode.ALL, Integer.MAX_VALUE, options, control);
+    }
+
+    /**
+     * Plans non dominés sur (totalCost, minSeconds, factoryLevel): aucun autre plan n'est au moins
+     * aussi bon sur les trois critères (le moins cher, le plus rapide, le moins exigeant en niveau...).
+     * Triés par coût, puis durée, puis niveau. Chaque sous-target ne garde que son front,
+     * les combinaisons dominées sont élaguées input par input ({@link ParetoFront}).
+     * maxPlans borne les combinaisons construites; deduplicate est sans effet (vecteurs égaux fusionnés).
+     */
+    public List<CraftPlan> planPareto(MaterialMatcher target,
+                                      List<MaterialMatcher> available,
+                                      PlanOptions options) {
+        return planPareto(target, compile(available), options);
+    }
+
+    public List<CraftPlan> planPareto(MaterialMatcher target,
+                                      Availability available,
+                                      PlanOptions options) {
+        return plan(target, available, Mode.PARETO, Integer.MAX_VALUE, options);
+    }
+
+    /** planPareto anytime (sans cache): provenOptimal si le front est complet. */
+    public PlanResult planPareto(MaterialMatcher target,
+                                 Availability available,
+                                 PlanOptions options,
+                                 PlanControl control) {
+        return controlled(target, available, Mode.PARETO, Integer.MAX_VALUE, options, control);
+    }
 
+    private PlanResult controlled(MaterialMatcher target,
+                                  Availability available,
+                                  Mode mode,
+                                  int k,
+                                  PlanOptions options,
+                                  PlanControl control) {
         Objects.requireNonNull(target, "target");
         Objects.requireNonNull(available, "available");
+        Objects.requireNonNull(options, "options");
+        Objects.requireNonNull(control, "control");
+        available.requireIndex(index);
+
+        // passe Knuth d'abord (rapide): son plan sert de "meilleur trouvé" si la DFS est interrompue
+        PlanStats.Recorder rec = recorder(options);
+        BestPlanEngine.Table table = bestEngine.supported() ? timedTable(available, control, rec) : null;
+        PlanResult r = search(target, available, mode, k, options, control, rec);
+        return table == null ? r : withFallback(r, target, table, options, mode, k);
+    }
+
+    /** DFS interrompue: ajoute le plan de la table Knuth (s'il tient dans maxDepth) aux plans trouvés. */
+    private static PlanResult withFallback(PlanResult r,
+                                           MaterialMatcher target,
+                                           BestPlanEngine.Table table,
+                                           PlanOptions options,
+                                           Mode mode,
+                                           int k) {
+        if (!r.interrupted()) return r;
+        Optional<CraftPlan> seed = table.planFor(target);
+        if (seed.isEmpty() || seed.get().height > options.maxDepth) return r;
+
+        List<CraftPlan> plans = new ArrayList<>(r.plans().size() + 1);
+        plans.add(seed.get());
+        plans.addAll(r.plans());
+        return new PlanResult(finish(PlanDedup.distinct(plans), mode, k), false, true, r.stats());
+    }
+
+    /**
+     * ALL à la demande: plans en coût croissant, construits au fil de la lecture.
+     * - limit(k) = TOP_K, arrêt anticipé = rien de plus n'est calculé
+     * - sans cycle atteignable: mêmes plans que planAll (à coût égal, ordre possiblement différent)
+     * - avec cycles: les plans où un matériau est dérivé de lui-même sont écartés
+     * maxPlans borne les candidats construits. Flux séquentiel, non thread-safe.
+     */
+    public Stream<CraftPlan> planStream(MaterialMatcher target,
+                                        List<MaterialMatcher> available,
+                                        PlanOptions options) {
+        return planStream(target, compile(available), options);
+    }
+
+    public Stream<CraftPlan> planStream(MaterialMatcher target,
+                                        Availability available,
+                                        PlanOptions options) {
+        Iterator<CraftPlan> it = planIterator(target, available, options);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /** Comme planStream, en pull direct. */
+    public Iterator<CraftPlan> planIterator(MaterialMatcher target,
+                                            Availability available,
+                                            PlanOptions options) {
+        Objects.requireNonNull(target, "target");
+        Objects.requireNonNull(available, "available");
+        Objects.requireNonNull(options, "options");
+        available.requireIndex(index);
+        return new PlanStream(index, target, available, options);
+    }
+
+    /**
+     * Plusieurs targets contre le même available-set (liste de courses, targets d'une catégorie...):
+     * un seul memo pour tous => les sous-chaînes communes sont résolues une fois.
+     * Résultat par target (ordre de la liste, doublons fusionnés), chacun trié comme planTopK / planAll;
+     * en BEST_ONLY: 0 ou 1 plan par target (une seule passe {@link BestPlanEngine}).
+     * maxPlans reste un budget par target; les sous-plans déjà en memo ne le consomment pas,
+     * donc un target coupé par le budget peut obtenir plus de plans qu'en appel isolé.
+     */
+    public Map<MaterialMatcher, List<CraftPlan>> planBatch(List<MaterialMatcher> targets,
+                                                           List<MaterialMatcher> available,
+                                                           Mode mode,
+                                                           int k,
+                                                           PlanOptions options) {
+        return planBatch(targets, compile(available), mode, k, options);
+    }
+
+    public Map<MaterialMatcher, List<CraftPlan>> planBatch(List<MaterialMatcher> targets,
+                                                           Availability available,
+                                                           Mode mode,
+                                                           int k,
+                                                           PlanOptions options) {
+        Map<MaterialMatcher, List<CraftPlan>> out = new LinkedHashMap<>();
+        batch(targets, available, mode, k, options, PlanControl.none()).forEach((t, r) -> out.put(t, r.plans()));
+        return out;
+    }
+
+    /** planBatch anytime (sans cache): un contrôle pour tout le batch, un résultat par target. */
+    public Map<MaterialMatcher, PlanResult> planBatch(List<MaterialMatcher> targets,
+                                                      Availability available,
+                                                      Mode mode,
+                                                      int k,
+                                                      PlanOptions options,
+                                                      PlanControl control) {
+        Objects.requireNonNull(control, "control");
+        return batch(targets, available, mode, k, options, control);
+    }
+
+    private Map<MaterialMatcher, PlanResult> batch(List<MaterialMatcher> targets,
+                                                   Availability available,
+                                                   Mode mode,
+                                                   int k,
+                                                   PlanOptions options,
+                                                   PlanControl control) {
+        Objects.requireNonNull(targets, "targets");
+        Objects.requireNonNull(available, "available");
         Objects.requireNonNull(mode, "mode");
         Objects.requireNonNull(options, "options");
+        if (mode == Mode.TOP_K && k <= 0) throw new IllegalArgumentException("k must be > 0.");
+        available.requireIndex(index);
 
-        // memo: targetKey -> (mode,k)-> plans
-        Map<String, List<CraftPlan>> memo = new HashMap<>();
-        Set<String> visiting = new HashSet<>();
-        PlanBudget budget = new PlanBudget(options.maxPlans);
+        // BEST_ONLY sans Knuth (coûts négatifs) => TOP_K k=1, comme planBest
+        Mode searchMode = searchMode(mode);
+        int searchK = searchK(mode, k);
+        // résultats interrompus non déterministes => cache seulement sans contrôle (ni mesures)
+        PlanCache batchCache = control == PlanControl.none() && !options.collectStats ? cache : null;
 
-        List<CraftPlan> result = solve(target, available, mode, k, options, 0, memo, visiting, budget);
+        Map<MaterialMatcher, PlanResult> out = new LinkedHashMap<>();
+        BestPlanEngine.Table table = null;
+        Query q = null;
 
-        // tri final
-        result.sort(Comparator.comparingInt(p -> p.totalCost));
+        for (MaterialMatcher target : targets) {
+            Objects.requireNonNull(target, "target");
+            if (out.containsKey(target)) continue;
+
+            PlanCache.Key key = batchCache == null ? null : cacheKey(target, available, mode, searchK, options);
+            List<CraftPlan> hit = key == null ? null : batchCache.get(key);
+            if (hit != null) {
+                // le cache ne garde pas les garanties: seul planBatch sans contrôle passe ici
+                out.put(target, new PlanResult(new ArrayList<>(hit), false, false));
+                continue;
+            }
+
+            // avec contrôle, la table Knuth sert aussi de repli aux DFS interrompues (passe comptée au 1er target)
+            PlanStats.Recorder rec = recorder(options);
+            if (table == null && bestEngine.supported() && (mode == Mode.BEST_ONLY || control != PlanControl.none())) {
+                table = timedTable(available, control, rec);
+            }
 
-        if (mode == Mode.BEST_ONLY && !result.isEmpty()) {
-            return List.of(result.get(0));
+            PlanResult result;
+            if (mode == Mode.BEST_ONLY && table != null) {
+                result = bestFromTable(target, table, options, control, rec);
+            } else {
+                if (q == null) q = new Query(available, searchMode, searchK, options, control, rec);
+                else q.nextTarget(rec);
+                result = result(run(target, q), q.budget);
+                if (table != null) result = withFallback(result, target, table, options, searchMode, searchK);
+            }
+            if (key != null) batchCache.put(key, result.plans());
+            out.put(target, result);
         }
+        return out;
+    }
 
-        if (mode == Mode.TOP_K) {
-            return result.size() <= k ? result : result.subList(0, k);
+    /**
+     * Session de planning pour un target: garde le memo (sous-graphe ET/OU résolu) entre
+     * deux changements d'inventaire, seuls les sous-targets touchés sont recalculés.
+     * BEST_ONLY y est traité en TOP_K k=1 (même résultat, mais incrémental).
+     */
+    public PlanningSession session(MaterialMatcher target,
+                                   List<MaterialMatcher> available,
+                                   Mode mode,
+                                   int k,
+                                   PlanOptions options) {
+        Objects.requireNonNull(target, "target");
+        Objects.requireNonNull(mode, "mode");
+        Objects.requireNonNull(options, "options");
+        if (mode == Mode.TOP_K && k <= 0) throw new IllegalArgumentException("k must be > 0.");
+
+        Query q = new Query(compile(available), searchMode(mode), searchK(mode, k), options);
+        q.trackDependencies();
+        return new PlanningSession(this, target, q);
+    }
+
+    /** Mode de recherche DFS: BEST_ONLY => TOP_K k=1. */
+    private static Mode searchMode(Mode mode) {
+        return mode == Mode.BEST_ONLY ? Mode.TOP_K : mode;
+    }
+
+    private static int searchK(Mode mode, int k) {
+        return switch (mode) {
+            case BEST_ONLY -> 1;
+            case TOP_K -> k;
+            case ALL, PARETO -> Integer.MAX_VALUE;
+        };
+    }
+
+    List<CraftPlan> plan(MaterialMatcher target,
+                         Availability available,
+                         Mode mode,
+                         int k,
+                         PlanOptions options) {
+
+        Objects.requireNonNull(target, "target");
+        Objects.requireNonNull(available, "available");
+        Objects.requireNonNull(mode, "mode");
+        Objects.requireNonNull(options, "options");
+        available.requireIndex(index);
+
+        PlanCache.Key key = cache == null ? null : cacheKey(target, available, mode, k, options);
+        if (key != null) {
+            List<CraftPlan> hit = cache.get(key);
+            if (hit != null) return new ArrayList<>(hit);
+        }
+        List<CraftPlan> result = search(target, available, mode, k, options, PlanControl.none(), null).plans();
+        if (key != null) cache.put(key, result);
+        return result;
+    }
+
+    private PlanResult search(MaterialMatcher target,
+                              Availability available,
+                              Mode mode,
+                              int k,
+                              PlanOptions options,
+                              PlanControl control,
+                              PlanStats.Recorder rec) {
+        Query q = new Query(available, mode, k, options, control, rec);
+        return result(run(target, q), q.budget);
+    }
+
+    /** DFS + tri final, chronométrés si la requête est mesurée. */
+    private List<CraftPlan> run(MaterialMatcher target, Query q) {
+        PlanStats.Recorder rec = q.budget.stats;
+        if (rec == null) return finish(solve(target, 0, q), q.mode, q.k);
+
+        long t0 = System.nanoTime();
+        List<CraftPlan> plans = solve(target, 0, q);
+        long t1 = System.nanoTime();
+        List<CraftPlan> sorted = finish(plans, q.mode, q.k);
+        rec.searchNanos += t1 - t0;
+        rec.finishNanos += System.nanoTime() - t1;
+        return sorted;
+    }
+
+    private static PlanResult result(List<CraftPlan> plans, PlanBudget budget) {
+        return new PlanResult(plans, !budget.cut(), budget.interrupted(),
+                budget.stats == null ? null : budget.stats.snapshot());
+    }
+
+    /** Re-solve un target sur un Query existant (memo conservé), voir {@link PlanningSession}. */
+    List<CraftPlan> resolve(MaterialMatcher target, Query q) {
+        q.nextTarget(null);
+        return run(target, q);
+    }
+
+    /** Tri final (+ coupe à k en TOP_K, front en PARETO), sur une copie: les listes du memo sont partagées. */
+    static List<CraftPlan> finish(List<CraftPlan> plans, Mode mode, int k) {
+        // front recalculé: un plan de repli (withFallback) peut en dominer d'autres
+        if (mode == Mode.PARETO) return ParetoFront.of(plans);
+
+        List<CraftPlan> result = new ArrayList<>(plans);
+        result.sort(Comparator.comparingInt(p -> p.totalCost));
+
+        if (mode == Mode.TOP_K && result.size() > k) {
+            return new ArrayList<>(result.subList(0, k));
         }
 
         // ALL
         return result;
     }
 
-    private List<CraftPlan> solve(MaterialMatcher target,
-                                  List<MaterialMatcher> available,
-                                  Mode mode,
-                                  int k,
-                                  PlanOptions options,
-                                  int depth,
-                                  Map<String, List<CraftPlan>> memo,
-                                  Set<String> visiting,
-                                  PlanBudget budget) {
+    private List<CraftPlan> solve(MaterialMatcher target, int depth, Query q) {
+        int id = index.idOf(target);
+        if (id >= 0) return solve(id, depth, q);
 
-        if (budget.exhausted()) return List.of();
-        if (depth > options.maxDepth) return List.of();
+        // key hors recettes: seul le target racine peut l'être, jamais revisité => pas de memo
+        if (q.budget.exhausted()) return List.of();
+        if (q.options.maxDepth - depth < 0) {
+            q.depthCut = true;
+            return List.of();
+        }
+        if (q.available.contains(target)) return List.of(CraftPlan.EMPTY);
+        int remaining = q.options.maxDepth - depth;
+        if (q.reach.anyDepth > remaining) return List.of();
+
+        int[] any = graph.anyProducers;
+        return expand(graph, any, 0, any.length, q.reach, remaining,
+                in -> solve(in, depth + 1, q), q.budget, q.mode, q.k, q.options);
+    }
+
+    private List<CraftPlan> solve(int id, int depth, Query q) {
+
+        if (q.budget.exhausted()) return List.of();
+
+        // marge de profondeur restante: un plan de hauteur h n'est valide que si h <= remaining
+        int remaining = q.options.maxDepth - depth;
+        if (remaining < 0) {
+            q.depthCut = true;
+            return List.of();
+        }
+
+        q.dependsOn(id);
+
+        // Si déjà dispo => plan vide (1 bit)
+        if (q.available.contains(id)) {
+            return List.of(CraftPlan.EMPTY);
+        }
 
-        // Si déjà dispo => plan vide
-        if (isAvailable(target, available)) {
-            return List.of(new CraftPlan(0, List.of()));
+        // fermeture précalculée: jamais producible, ou aucun plan assez bas pour la marge
+        int minDepth = q.reach.minDepth[id];
+        if (minDepth > remaining) {
+            if (minDepth != Reachability.UNREACHABLE) q.depthCut = true;
+            return List.of();
         }
 
-        String memoKey = target.key() + "|mode=" + mode + "|k=" + (mode == Mode.TOP_K ? k : 0) + "|depth=" + depth;
-        List<CraftPlan> cached = memo.get(memoKey);
-        if (cached != null) return cached;
+        // composante cyclique: le résultat dépend des ancêtres de la même composante sur le chemin
+        // (les autres ne sont pas atteignables d'ici) => clé du memo = (marge, ces ancêtres)
+        int component = graph.component[id];
+        BitSet path = graph.cyclicComponent[component] ? q.pathIn(component) : null;
+
+        for (MemoEntry cached = q.memo[id]; cached != null; cached = cached.next) {
+            if (cached.validFor(remaining) && cached.samePath(path)) {
+                memoHits.increment();
+                if (q.budget.stats != null) q.budget.stats.memoHits++;
+                q.depthCut |= cached.depthCut;
+                return cached.plans;
+            }
+        }
 
         // cycle
-        if (!visiting.add(target.key())) {
+        if (q.visiting.get(id)) {
             return List.of();
         }
+        q.visiting.set(id);
+        if (path != null) path.set(graph.localIndex[id]);
+        memoMisses.increment();
+        if (q.budget.stats != null) q.budget.stats.nodesExpanded++;
+        q.solved++;
+
+        boolean outerCut = q.depthCut;
+        // producteurs trop profonds écartés par expand => résultat dépendant de la marge
+        q.depthCut = q.reach.depthCutAt(id, remaining);
+        int outerCurrent = q.current;
+        q.current = id;
+
+        List<CraftPlan> allCandidates = expand(graph, graph.producers, graph.producerStart[id], graph.producerStart[id + 1],
+                q.reach, remaining, in -> solve(in, depth + 1, q), q.budget, q.mode, q.k, q.options);
+        q.current = outerCurrent;
+
+        q.visiting.clear(id);
+        if (path != null) path.clear(graph.localIndex[id]);
+        // liste tronquée par le budget: pas réutilisable par les targets suivants d'un batch
+        if (!q.budget.exhausted()) {
+            q.memo[id] = new MemoEntry(allCandidates, remaining, q.depthCut, path, q.memo[id]);
+        }
+        q.depthCut |= outerCut;
+        return allCandidates;
+    }
+
+    /** Plans d'un input (id interné): récursion (séquentiel) ou résultat déjà calculé (parallèle). */
+    interface InputSolver {
+        List<CraftPlan> solve(int input);
+    }
 
+    /**
+     * Combine les plans d'inputs de chaque producteur producers[from, to) (ALL: + dedup).
+     * Les producteurs dont la hauteur min dépasse remaining (ou jamais faisables) sont sautés
+     * avant de résoudre le moindre input.
+     */
+    static List<CraftPlan> expand(RecipeGraph g,
+                                  int[] producers,
+                                  int from,
+                                  int to,
+                                  Reachability reach,
+                                  int remaining,
+                                  InputSolver solver,
+                                  PlanBudget budget,
+                                  Mode mode,
+                                  int k,
+                                  PlanOptions options) {
+        if (mode == Mode.TOP_K) {
+            return expandTopK(g, producers, from, to, reach, remaining, solver, budget, k, options.deduplicate);
+        }
+        if (mode == Mode.PARETO) {
+            return expandPareto(g, producers, from, to, reach, remaining, solver, budget);
+        }
+        List<CraftPlan> all = expandAll(g, producers, from, to, reach, remaining, solver, budget);
+        List<CraftPlan> out = options.deduplicate && all.size() > 1 ? PlanDedup.distinct(all) : all;
+        PlanStats.Recorder rec = budget.stats;
+        if (rec != null) {
+            rec.candidates(all.size());
+            rec.dedupDropped += all.size() - out.size();
+            rec.kept += out.size();
+        }
+        return out;
+    }
+
+    /** ALL: cross product complet des plans d'inputs, recette par recette. */
+    private static List<CraftPlan> expandAll(RecipeGraph g, int[] producers, int from, int to,
+                                             Reachability reach, int remaining,
+                                             InputSolver solver, PlanBudget budget) {
         List<CraftPlan> allCandidates = new ArrayList<>();
 
-        for (ProcessRecipe r : recipesThatCanProduce(target)) {
+        for (int p = from; p < to; p++) {
             if (budget.exhausted()) break;
+            int r = producers[p];
+            if (reach.recipeDepth[r] > remaining) continue;
+            int inStart = g.inputStart[r];
+            int n = g.inputStart[r + 1] - inStart;
 
             // 1) résoudre chaque input => liste de plans par input
-            List<List<CraftPlan>> perInputPlans = new ArrayList<>();
+            List<List<CraftPlan>> perInputPlans = new ArrayList<>(n);
             boolean ok = true;
 
-            for (MaterialMatcher in : r.inputs()) {
-                List<CraftPlan> subPlans = solve(in, available, mode, k, options, depth + 1, memo, visiting, budget);
+            for (int i = 0; i < n; i++) {
+                List<CraftPlan> subPlans = solver.solve(g.inputs[inStart + i]);
                 if (subPlans.isEmpty()) {
                     ok = false;
                     break;
                 }
+                perInputPlans.add(subPlans);
+            }
 
-                // Dans TOP_K/BEST_ONLY, on limite déjà le fan-out par input
-                if (mode != Mode.ALL) {
-                    subPlans = trimTop(subPlans, k);
+            if (!ok) continue;
+
+            // 2) cross product des plans d'inputs (odomètre: 1er input = poids fort)
+            //    chaque candidat référence ses sous-plans, aucune liste d'étapes copiée
+            int[] picks = new int[n];
+            while (!budget.exhausted()) {
+                CraftPlan[] inputs = new CraftPlan[n];
+                for (int i = 0; i < n; i++) inputs[i] = perInputPlans.get(i).get(picks[i]);
+                allCandidates.add(CraftPlan.of(g, r, inputs));
+                budget.consumeOne();
+
+                int i = n - 1;
+                while (i >= 0 && ++picks[i] == perInputPlans.get(i).size()) {
+                    picks[i] = 0;
+                    i--;
                 }
+                if (i < 0) break;
+            }
+
+            // Petites optimisations
+            allCandidates.sort(Comparator.comparingInt(c -> c.totalCost));
+        }
+        return allCandidates;
+    }
+
+    /** PARETO: combinaisons non dominées de chaque recette, puis front commun aux recettes. */
+    private static List<CraftPlan> expandPareto(RecipeGraph g, int[] producers, int from, int to,
+                                                Reachability reach, int remaining,
+                                                InputSolver solver, PlanBudget budget) {
+        ParetoFront front = new ParetoFront();
 
+        for (int p = from; p < to; p++) {
+            if (budget.exhausted()) break;
+            int r = producers[p];
+            if (reach.recipeDepth[r] > remaining) continue;
+            int inStart = g.inputStart[r];
+            int n = g.inputStart[r + 1] - inStart;
+
+            List<List<CraftPlan>> perInputPlans = new ArrayList<>(n);
+            boolean ok = true;
+            for (int i = 0; i < n; i++) {
+                List<CraftPlan> subPlans = solver.solve(g.inputs[inStart + i]);
+                if (subPlans.isEmpty()) {
+                    ok = false;
+                    break;
+                }
                 perInputPlans.add(subPlans);
             }
-
             if (!ok) continue;
 
-            // 2) combiner les plans des inputs (cross product)
-            List<CraftPlan> combined = combine(perInputPlans, budget);
-            if (combined.isEmpty()) continue;
+            // (coût, durée, niveau) de la recette identiques pour toutes ses combinaisons
+            for (CraftPlan[] inputs : ParetoFront.combine(perInputPlans, budget)) {
+                front.add(CraftPlan.of(g, r, inputs));
+            }
+        }
 
-            // 3) ajouter l’étape de la recette
-            for (CraftPlan base : combined) {
-                if (budget.exhausted()) break;
+        List<CraftPlan> out = front.plans();
+        if (budget.stats != null) {
+            budget.stats.candidates(out.size());
+            budget.stats.kept += out.size();
+        }
+        return out;
+    }
 
-                List<PlanStep> steps = new ArrayList<>(base.steps);
-                steps.add(new PlanStep(r));
+    /**
+     * TOP_K: fusion paresseuse des produits (recette x plans d'inputs triés),
+     * on ne construit que les k premières combinaisons en coût croissant.
+     *
+     * Élagage A* (coûts >= 0): recettes examinées par minorant croissant (cost + minorants des inputs);
+     * une recette dont cost + (meilleurs inputs résolus) + (minorants des autres) ne peut plus
+     * passer devant la k-ième meilleure recette retenue est abandonnée sans résoudre la suite.
+     * Meilleure recette retenue = sa combinaison la moins chère: toutes distinctes (dernière étape
+     * différente), départagées comme dans la fusion (coût puis ordre des recettes) => résultat
+     * identique à la fusion complète, les sources étant fusionnées dans l'ordre d'origine.
+     */
+    private static List<CraftPlan> expandTopK(RecipeGraph g,
+                                              int[] producers,
+                                              int from,
+                                              int to,
+                                              Reachability reach,
+                                              int remaining,
+                                              InputSolver solver,
+                                              PlanBudget budget,
+                                              int k,
+                                              boolean deduplicate) {
+        int count = to - from;
+        int[] lower = reach.minCost;
+        KthCost kth = lower == null || k >= count ? null : new KthCost(k);
+        int[] order = kth == null ? null : byLowerBound(g, producers, from, to, lower);
 
-                CraftPlan candidate = new CraftPlan(base.totalCost + r.cost(), steps);
-                allCandidates.add(candidate);
-                budget.consumeOne();
-            }
+        // par position d'origine: plans d'inputs retenus (null = recette écartée)
+        List<List<List<CraftPlan>>> inputsAt = new ArrayList<>(Collections.nCopies(count, null));
+        int[][][] costsAt = new int[count][][];
 
-            // Petites optimisations
-            allCandidates.sort(Comparator.comparingInt(p -> p.totalCost));
+        for (int o = 0; o < count; o++) {
+            if (budget.exhausted()) break;
+            int pos = order == null ? o : order[o];
+            int r = producers[from + pos];
+            if (reach.recipeDepth[r] > remaining) continue;
+            int inStart = g.inputStart[r];
+            int n = g.inputStart[r + 1] - inStart;
 
-            if (mode == Mode.BEST_ONLY && !allCandidates.isEmpty()) {
-                // le meilleur suffit
-                allCandidates = List.of(allCandidates.get(0));
-                break;
+            long bound = 0;
+            if (kth != null) {
+                bound = g.cost[r];
+                for (int i = 0; i < n; i++) bound += lower[g.inputs[inStart + i]];
+                if (kth.beats(bound, pos)) break; // ordre par minorant: les suivantes aussi
             }
 
-            if (mode == Mode.TOP_K && allCandidates.size() > k) {
-                allCandidates = new ArrayList<>(allCandidates.subList(0, k));
+            List<List<CraftPlan>> perInputPlans = new ArrayList<>(n);
+            int[][] costs = new int[n][];
+            boolean ok = true;
+
+            for (int i = 0; i < n; i++) {
+                // listes du memo déjà triées par coût (et <= k en TOP_K)
+                int in = g.inputs[inStart + i];
+                List<CraftPlan> subPlans = solver.solve(in);
+                if (subPlans.isEmpty()) {
+                    ok = false;
+                    break;
+                }
+                if (kth != null) {
+                    bound += subPlans.get(0).totalCost - lower[in];
+                    if (kth.beats(bound, pos)) {
+                        ok = false;
+                        break;
+                    }
+                }
+                int[] c = new int[subPlans.size()];
+                for (int j = 0; j < c.length; j++) c[j] = subPlans.get(j).totalCost;
+                costs[i] = c;
+                perInputPlans.add(subPlans);
             }
+            if (!ok) continue;
+
+            inputsAt.set(pos, perInputPlans);
+            costsAt[pos] = costs;
+            if (kth != null) kth.add(bound, pos); // bound = coût de la combinaison la moins chère
+        }
+
+        int[] sourceRecipes = new int[count];
+        List<List<List<CraftPlan>>> sourceInputs = new ArrayList<>(count);
+        KBestMerge merge = new KBestMerge();
+        for (int pos = 0; pos < count; pos++) {
+            if (inputsAt.get(pos) == null) continue;
+            int r = producers[from + pos];
+            merge.addSource(g.cost[r], costsAt[pos]);
+            sourceRecipes[sourceInputs.size()] = r;
+            sourceInputs.add(inputsAt.get(pos));
         }
 
-        visiting.remove(target.key());
+        List<CraftPlan> out = new ArrayList<>();
+        PlanDedup seen = deduplicate ? new PlanDedup() : null;
+
+        while (out.size() < k && !budget.exhausted()) {
+            KBestMerge.Combination c = merge.next();
+            if (c == null) break;
 
-        // Dedup
-        if (options.deduplicate && allCandidates.size() > 1) {
-            LinkedHashMap<String, CraftPlan> map = new LinkedHashMap<>();
-            for (CraftPlan p : allCandidates) {
-                map.putIfAbsent(p.signature(), p);
+            CraftPlan candidate = assemble(g, sourceRecipes[c.source], sourceInputs.get(c.source), c.picks);
+            budget.consumeOne();
+            if (seen != null && !seen.add(candidate)) {
+                if (budget.stats != null) budget.stats.dedupDropped++;
+                continue;
             }
-            allCandidates = new ArrayList<>(map.values());
-            allCandidates.sort(Comparator.comparingInt(p -> p.totalCost));
+            out.add(candidate);
         }
-
-        memo.put(memoKey, allCandidates);
-        return allCandidates;
+        if (budget.stats != null) {
+            budget.stats.candidates(out.size());
+            budget.stats.kept += out.size();
+        }
+        return out;
     }
 
-    private boolean isAvailable(MaterialMatcher target, List<MaterialMatcher> available) {
-        // Simplifié:
-        // - ANY dispo => tout dispo
-        // - même key => dispo
-        for (MaterialMatcher a : available) {
-            if (a.getKind() == MaterialMatcher.Kind.ANY) return true;
-            if (a.key().equals(target.key())) return true;
+    /** Positions (0 = from) des producteurs, triées par minorant de coût puis ordre d'origine. */
+    static int[] byLowerBound(RecipeGraph g, int[] producers, int from, int to, int[] lower) {
+        int count = to - from;
+        long[] keys = new long[count];
+        for (int pos = 0; pos < count; pos++) {
+            int r = producers[from + pos];
+            long bound = g.cost[r];
+            for (int i = g.inputStart[r]; i < g.inputStart[r + 1]; i++) bound += lower[g.inputs[i]];
+            // minorant borné (l'ordre seul en dépend) | position sur 24 bits
+            keys[pos] = (Math.min(bound, 1L << 38) << 24) | pos;
         }
-        return false;
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int o = 0; o < count; o++) order[o] = (int) (keys[o] & 0xFFFFFF);
+        return order;
     }
 
-    private List<ProcessRecipe> recipesThatCanProduce(MaterialMatcher target) {
-        List<ProcessRecipe> list = new ArrayList<>();
-        for (ProcessRecipe r : recipes) {
-            for (MaterialMatcher out : r.outputs()) {
-                if (covers(out, target)) {
-                    list.add(r);
-                    break;
-                }
+    /** k plus petites paires (coût, position), ordre lexicographique = ordre de la fusion. */
+    private static final class KthCost {
+        private final long[] costs;
+        private final int[] positions;
+        private int size;
+
+        KthCost(int k) {
+            this.costs = new long[k];
+            this.positions = new int[k];
+        }
+
+        void add(long cost, int pos) {
+            if (size == costs.length && !before(cost, pos, size - 1)) return;
+            int i = size == costs.length ? size - 1 : size++;
+            while (i > 0 && before(cost, pos, i - 1)) {
+                costs[i] = costs[i - 1];
+                positions[i] = positions[i - 1];
+                i--;
             }
+            costs[i] = cost;
+            positions[i] = pos;
         }
-        return list;
-    }
 
-    /**
-     * "out couvre target" :
-     * - exact ID couvre ID
-     * - TYPE couvre TYPE
-     * - CATEGORY couvre CATEGORY
-     * - ANY couvre tout
-     *
-     * (Tu pourras l’enrichir: ID couvre TYPE/CAT si tu as une DB de matériaux, etc.)
-     */
-    private boolean covers(MaterialMatcher out, MaterialMatcher target) {
-        if (out.getKind() == MaterialMatcher.Kind.ANY) return true;
-        return out.key().equals(target.key());
+        /** true si k paires retenues passent toutes devant (cost, pos). */
+        boolean beats(long cost, int pos) {
+            return size == costs.length && before(costs[size - 1], positions[size - 1], cost, pos);
+        }
+
+        private boolean before(long cost, int pos, int i) {
+            return before(cost, pos, costs[i], positions[i]);
+        }
+
+        private static boolean before(long c1, int p1, long c2, int p2) {
+            return c1 < c2 || (c1 == c2 && p1 < p2);
+        }
     }
 
-    private List<CraftPlan> trimTop(List<CraftPlan> plans, int k) {
-        if (plans.size() <= k) return plans;
-        plans.sort(Comparator.comparingInt(p -> p.totalCost));
-        return plans.subList(0, k);
+    private static CraftPlan assemble(RecipeGraph g, int r, List<List<CraftPlan>> perInputPlans, int[] picks) {
+        CraftPlan[] inputs = new CraftPlan[picks.length];
+        for (int i = 0; i < picks.length; i++) inputs[i] = perInputPlans.get(i).get(picks[i]);
+        return CraftPlan.of(g, r, inputs);
     }
 
-    /**
-     * Combine une liste de choix par input:
-     * perInputPlans = [[p1,p2], [q1,q2,q3], [r1]]
-     * => p x q x r
-     */
-    private List<CraftPlan> combine(List<List<CraftPlan>> perInputPlans, PlanBudget budget) {
-        if (perInputPlans.isEmpty()) return List.of(new CraftPlan(0, List.of()));
+    /** État d'une requête: memo indexé par id interné + chemin courant (cycles). */
+    final class Query {
+        Availability available;
+        Reachability reach; // fermeture de available (suit ses changements, voir use)
+        final Mode mode;
+        final int k;
+        final PlanOptions options;
+        PlanBudget budget;
+
+        final MemoEntry[] memo = new MemoEntry[index.size()];
+        final BitSet visiting = new BitSet(index.size());
+        BitSet[] paths;   // composante cyclique -> positions locales de ses matériaux sur le chemin
+        boolean depthCut; // une coupe maxDepth a eu lieu dans le sous-arbre en cours
+
+        // dépendances (sessions seulement): id -> ids dont le résultat l'a consulté
+        BitSet[] parents;
+        int current = -1;   // id en cours d'expansion
+        int solved;         // sous-targets réellement résolus
+
+        final PlanControl control;
+
+        Query(Availability available, Mode mode, int k, PlanOptions options) {
+            this(available, mode, k, options, PlanControl.none());
+        }
+
+        Query(Availability available, Mode mode, int k, PlanOptions options, PlanControl control) {
+            this(available, mode, k, options, control, null);
+        }
+
+        Query(Availability available, Mode mode, int k, PlanOptions options, PlanControl control,
+              PlanStats.Recorder stats) {
+            this.available = available;
+            this.reach = available.reachability();
+            this.mode = mode;
+            this.k = k;
+            this.options = options;
+            this.control = control;
+            this.budget = new PlanBudget(options.maxPlans, control, stats);
+        }
+
+        /** Target suivant d'un batch: budget (et mesures) neufs, memo conservé. */
+        void nextTarget(PlanStats.Recorder stats) {
+            budget = new PlanBudget(options.maxPlans, control, stats);
+            depthCut = false;
+            solved = 0;
+        }
 
-        List<CraftPlan> acc = new ArrayList<>(perInputPlans.get(0));
-        for (int i = 1; i < perInputPlans.size(); i++) {
-            if (budget.exhausted()) return List.of();
+        BitSet pathIn(int component) {
+            if (paths == null) paths = new BitSet[graph.componentCount];
+            BitSet p = paths[component];
+            if (p == null) paths[component] = p = new BitSet();
+            return p;
+        }
+
+        /** Nouvel inventaire (session): le memo doit déjà avoir été invalidé en conséquence. */
+        void use(Availability next) {
+            available = next;
+            reach = next.reachability();
+        }
 
-            List<CraftPlan> next = perInputPlans.get(i);
-            List<CraftPlan> merged = new ArrayList<>();
+        void trackDependencies() {
+            if (parents == null) parents = new BitSet[memo.length];
+        }
 
-            for (CraftPlan a : acc) {
-                if (budget.exhausted()) break;
-                for (CraftPlan b : next) {
-                    if (budget.exhausted()) break;
+        private void dependsOn(int id) {
+            if (parents == null || current < 0) return;
+            BitSet p = parents[id];
+            if (p == null) parents[id] = p = new BitSet();
+            p.set(current);
+        }
 
-                    List<PlanStep> steps = new ArrayList<>(a.steps);
-                    steps.addAll(b.steps);
+        /** Oublie id et tout ce qui en dépend (transitivement). Retourne le nombre d'ids oubliés. */
+        int invalidate(int id) {
+            if (parents == null) throw new IllegalStateException("Dependencies are not tracked.");
+            int count = 0;
+            ArrayDeque<Integer> todo = new ArrayDeque<>();
+            BitSet seen = new BitSet(memo.length);
+            todo.add(id);
+            seen.set(id);
+            while (!todo.isEmpty()) {
+                int x = todo.poll();
+                if (memo[x] != null) {
+                    memo[x] = null;
+                    count++;
+                }
+                BitSet p = parents[x];
+                if (p == null) continue;
+                parents[x] = null; // les parents recalculés redéclareront leurs dépendances
+                for (int parent = p.nextSetBit(0); parent >= 0; parent = p.nextSetBit(parent + 1)) {
+                    if (!seen.get(parent)) {
+                        seen.set(parent);
+                        todo.add(parent);
+                    }
+                }
+            }
+            return count;
+        }
 
-                    merged.add(new CraftPlan(a.totalCost + b.totalCost, steps));
+        /**
+         * Oublie les sorties des recettes qui ont changé de hauteur min ou de minorant de coût
+         * entre deux fermetures (voir {@link Reachability#next}): leurs résultats ont pu sauter
+         * ces producteurs sans en consulter les inputs.
+         */
+        int invalidatePruningChanges(BitSet changedRecipes) {
+            int count = 0;
+            for (int r = changedRecipes.nextSetBit(0); r >= 0; r = changedRecipes.nextSetBit(r + 1)) {
+                if (graph.producesAny[r]) return count + invalidateAll();
+                for (int o = graph.outputStart[r]; o < graph.outputStart[r + 1]; o++) {
+                    count += invalidate(graph.outputs[o]);
                 }
             }
-            acc = merged;
-            // petite réduction : garder les meilleurs en premier
-            acc.sort(Comparator.comparingInt(p -> p.totalCost));
+            return count;
+        }
+
+        int invalidateAll() {
+            int count = 0;
+            for (int i = 0; i < memo.length; i++) {
+                if (memo[i] != null) {
+                    memo[i] = null;
+                    count++;
+                }
+            }
+            if (parents != null) Arrays.fill(parents, null);
+            return count;
         }
-        return acc;
     }
 
-    private static final class PlanBudget {
-        private int remaining;
-        PlanBudget(int max) { this.remaining = max; }
-        void consumeOne() { if (remaining > 0) remaining--; }
-        boolean exhausted() { return remaining <= 0; }
+    /**
+     * Résultat d'un sous-target, indépendant de la profondeur d'arrivée:
+     * - revisite avec plus de marge: valide si aucune coupe maxDepth n'a eu lieu
+     * - revisite avec moins de marge: valide si tous les plans tiennent dans la marge
+     * Une entrée par marge réellement calculée (chaînées): une marge n'est jamais recalculée.
+     * Composante cyclique: une entrée par ensemble d'ancêtres de la composante (path) en plus.
+     */
+    private static final class MemoEntry {
+        final List<CraftPlan> plans;
+        final int remaining;
+        final boolean depthCut;
+        final BitSet path;      // null = aucun ancêtre de la même composante
+        final int maxHeight;
+        final MemoEntry next;
+
+        MemoEntry(List<CraftPlan> plans, int remaining, boolean depthCut, BitSet path, MemoEntry next) {
+            this.plans = plans;
+            this.remaining = remaining;
+            this.depthCut = depthCut;
+            this.path = path == null || path.isEmpty() ? null : (BitSet) path.clone();
+            this.next = next;
+            int h = 0;
+            for (CraftPlan p : plans) h = Math.max(h, p.height);
+            this.maxHeight = h;
+        }
+
+        boolean validFor(int remainingNow) {
+            if (remainingNow >= remaining) return remainingNow == remaining || !depthCut;
+            return maxHeight <= remainingNow;
+        }
+
+        boolean samePath(BitSet pathNow) {
+            return path == null ? pathNow == null || pathNow.isEmpty() : path.equals(pathNow);
+        }
+    }
+
+    /**
+     * Nombre max de candidats construits (atomique: partagé entre threads en parallèle)
+     * + point de contrôle deadline / annulation
+     * + mesures de la requête (stats, null si non demandées).
+     */
+    static final class PlanBudget {
+        private final AtomicInteger remaining;
+        private final PlanControl control;
+        final PlanStats.Recorder stats;
+        private volatile boolean cut;          // une branche a été sautée (résultat incomplet)
+        private volatile boolean interrupted;  // ... à cause du PlanControl
+
+        PlanBudget(int max) { this(max, PlanControl.none(), null); }
+        PlanBudget(int max, PlanControl control) { this(max, control, null); }
+        PlanBudget(int max, PlanControl control, PlanStats.Recorder stats) {
+            this.remaining = new AtomicInteger(max);
+            this.control = control;
+            this.stats = stats;
+        }
+        void consumeOne() {
+            remaining.decrementAndGet();
+            if (stats != null) stats.generated++;
+        }
+        boolean exhausted() {
+            if (remaining.get() <= 0) {
+                markCut();
+                return true;
+            }
+            if (control.stopRequested()) {
+                interrupted = true;
+                markCut();
+                return true;
+            }
+            return false;
+        }
+        private void markCut() {
+            cut = true;
+            if (stats != null && stats.exhaustedAt < 0) stats.exhaustedAt = stats.generated;
+        }
+        boolean cut() { return cut; }
+        boolean interrupted() { return interrupted; }
     }
 }
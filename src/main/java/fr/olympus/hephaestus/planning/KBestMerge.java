@@ -0,0 +1,83 @@
+package fr.olympus.hephaestus.planning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Fusion paresseuse "k meilleurs" de produits cartésiens triés.
+ * - une source = un coût de base + une liste de coûts triés (croissants) par input
+ * - next() renvoie la combinaison suivante en coût total croissant (toutes sources confondues)
+ * - seules les combinaisons tirées et leurs voisines immédiates sont construites
+ *
+ * Chaque vecteur d'indices n'est généré qu'une fois: on n'incrémente que les
+ * positions >= la dernière position incrémentée (pas de set de "déjà vus").
+ */
+final class KBestMerge {
+
+    /** Une combinaison: picks[i] = index choisi dans la liste de l'input i. */
+    static final class Combination {
+        final int source;
+        final int[] picks;
+        final int cost;
+
+        private final int from;
+        private final long seq;
+
+        private Combination(int source, int[] picks, int cost, int from, long seq) {
+            this.source = source;
+            this.picks = picks;
+            this.cost = cost;
+            this.from = from;
+            this.seq = seq;
+        }
+    }
+
+    // départage stable: coût, puis ordre des sources, puis ordre d'insertion
+    private final PriorityQueue<Combination> frontier = new PriorityQueue<>((a, b) -> {
+        if (a.cost != b.cost) return Integer.compare(a.cost, b.cost);
+        if (a.source != b.source) return Integer.compare(a.source, b.source);
+        return Long.compare(a.seq, b.seq);
+    });
+
+    private final List<int[][]> sources = new ArrayList<>();
+    private long seq;
+
+    /**
+     * @param baseCost coût ajouté à toute combinaison de la source (ex: coût de la recette)
+     * @param costs    costs[i] = coûts triés croissants des choix de l'input i (aucune liste vide)
+     * @return index de la source
+     */
+    int addSource(int baseCost, int[][] costs) {
+        int source = sources.size();
+        sources.add(costs);
+
+        int[] first = new int[costs.length];
+        int cost = baseCost;
+        for (int[] c : costs) cost += c[0];
+        frontier.add(new Combination(source, first, cost, 0, seq++));
+        return source;
+    }
+
+    boolean hasNext() {
+        return !frontier.isEmpty();
+    }
+
+    /** Combinaison suivante, ou null si tout a été énuméré. */
+    Combination next() {
+        Combination c = frontier.poll();
+        if (c == null) return null;
+
+        int[][] costs = sources.get(c.source);
+        for (int i = c.from; i < costs.length; i++) {
+            int pick = c.picks[i];
+            if (pick + 1 >= costs[i].length) continue;
+
+            int[] succ = c.picks.clone();
+            succ[i] = pick + 1;
+            int cost = c.cost - costs[i][pick] + costs[i][pick + 1];
+            frontier.add(new Combination(c.source, succ, cost, i, seq++));
+        }
+        return c;
+    }
+}
@@ -0,0 +1,212 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Variante fork/join de {@link CraftPlanner} pour TOP_K / ALL:
+ * - chaque sous-target (id, marge de profondeur) = une tâche, calculée une seule fois (single-flight)
+ * - les inputs que le planner séquentiel résoudra à coup sûr sont lancés d'avance en parallèle
+ *   (producteurs faisables; en TOP_K élagué par minorant, les k premiers dans l'ordre des minorants),
+ *   les autres seulement si la combinaison les demande: aucun sous-arbre que la version séquentielle
+ *   ne visiterait pas ne consomme le budget
+ * - combinaison des plans dans l'ordre des recettes, comme le planner séquentiel
+ * - budget maxPlans partagé (atomique)
+ *
+ * Résultats identiques au planner séquentiel: si le sous-graphe du target contient un cycle
+ * (résultat dépendant du chemin) ou si le budget s'épuise (résultat dépendant de l'ordre),
+ * la requête est refaite par le planner séquentiel.
+ *
+ * BEST_ONLY n'est pas parallélisé (une passe {@link BestPlanEngine} suffit).
+ * Non pris en charge: PlanControl (deadline, annulation), PARETO et PlanStats (les méthodes rendent
+ * des List: {@link CraftPlanner.PlanOptions#withStats()} est ignoré). Passer par {@link #sequential()}.
+ */
+public final class ParallelCraftPlanner {
+
+    private final CraftPlanner sequential;
+    private final RecipeIndex index;
+    private final RecipeGraph graph;
+    private final ForkJoinPool pool;
+
+    public ParallelCraftPlanner(CraftPlanner sequential) {
+        this(sequential, ForkJoinPool.commonPool());
+    }
+
+    public ParallelCraftPlanner(CraftPlanner sequential, ForkJoinPool pool) {
+        this.sequential = Objects.requireNonNull(sequential, "sequential");
+        this.index = sequential.index();
+        this.graph = index.graph();
+        this.pool = Objects.requireNonNull(pool, "pool");
+    }
+
+    public CraftPlanner sequential() {
+        return sequential;
+    }
+
+    public Optional<CraftPlanner.CraftPlan> planBest(MaterialMatcher target,
+                                                     Availability available,
+                                                     CraftPlanner.PlanOptions options) {
+        return sequential.planBest(target, available, options);
+    }
+
+    public List<CraftPlanner.CraftPlan> planTopK(MaterialMatcher target,
+                                                 List<MaterialMatcher> available,
+                                                 int k,
+                                                 CraftPlanner.PlanOptions options) {
+        return planTopK(target, sequential.compile(available), k, options);
+    }
+
+    public List<CraftPlanner.CraftPlan> planTopK(MaterialMatcher target,
+                                                 Availability available,
+                                                 int k,
+                                                 CraftPlanner.PlanOptions options) {
+        if (k <= 0) throw new IllegalArgumentException("k must be > 0.");
+        return plan(target, available, CraftPlanner.Mode.TOP_K, k, options);
+    }
+
+    public List<CraftPlanner.CraftPlan> planAll(MaterialMatcher target,
+                                                List<MaterialMatcher> available,
+                                                CraftPlanner.PlanOptions options) {
+        return planAll(target, sequential.compile(available), options);
+    }
+
+    public List<CraftPlanner.CraftPlan> planAll(MaterialMatcher target,
+                                                Availability available,
+                                                CraftPlanner.PlanOptions options) {
+        return plan(target, available, CraftPlanner.Mode.ALL, Integer.MAX_VALUE, options);
+    }
+
+    private List<CraftPlanner.CraftPlan> plan(MaterialMatcher target,
+                                              Availability available,
+                                              CraftPlanner.Mode mode,
+                                              int k,
+                                              CraftPlanner.PlanOptions options) {
+        Objects.requireNonNull(target, "target");
+        Objects.requireNonNull(available, "available");
+        Objects.requireNonNull(options, "options");
+        available.requireIndex(index);
+
+        if (available.contains(target) || index.reachesCycle(target, available)) {
+            return sequential.plan(target, available, mode, k, options);
+        }
+
+        Run run = new Run(available, mode, k, options);
+        List<CraftPlanner.CraftPlan> plans = pool.invoke(new RootTask(run, target));
+
+        if (run.budget.exhausted()) {
+            // l'ordre de consommation du budget change le résultat => version séquentielle
+            return sequential.plan(target, available, mode, k, options);
+        }
+        return CraftPlanner.finish(plans, mode, k);
+    }
+
+    /** État partagé d'une requête: memo single-flight (id, marge) -> tâche + budget. */
+    private final class Run {
+        final Availability available;
+        final CraftPlanner.Mode mode;
+        final int k;
+        final CraftPlanner.PlanOptions options;
+        final CraftPlanner.PlanBudget budget;
+        final Reachability reach;
+        final ConcurrentHashMap<Long, NodeTask> memo = new ConcurrentHashMap<>();
+
+        Run(Availability available, CraftPlanner.Mode mode, int k, CraftPlanner.PlanOptions options) {
+            this.available = available;
+            this.mode = mode;
+            this.k = k;
+            this.options = options;
+            this.budget = new CraftPlanner.PlanBudget(options.maxPlans);
+            this.reach = available.reachability();
+        }
+
+        NodeTask node(int id, int remaining) {
+            long key = ((long) id << 32) | remaining;
+            return memo.computeIfAbsent(key, x -> new NodeTask(this, id, remaining));
+        }
+
+        /**
+         * Lance d'avance les sous-targets que CraftPlanner.expand résoudra à coup sûr, puis combine
+         * avec CraftPlanner.expand (les autres sous-targets sont lancés à sa demande).
+         */
+        List<CraftPlanner.CraftPlan> expand(int[] producers, int from, int to, int remaining) {
+            if (budget.exhausted()) return List.of();
+
+            int childRemaining = remaining - 1;
+            if (childRemaining >= 0) {
+                // producteur faisable (recipeDepth <= marge): chaque input a un plan, pas de sortie anticipée;
+                // TOP_K avec minorants: seuls les k premiers (ordre des minorants) échappent à l'élagage
+                int count = to - from;
+                boolean pruned = mode == CraftPlanner.Mode.TOP_K && reach.minCost != null && k < count;
+                int[] order = pruned ? CraftPlanner.byLowerBound(graph, producers, from, to, reach.minCost) : null;
+                int certain = pruned ? k : count;
+                for (int o = 0; o < count && certain > 0; o++) {
+                    int r = producers[from + (order == null ? o : order[o])];
+                    if (reach.recipeDepth[r] > remaining) continue; // sauté par CraftPlanner.expand
+                    certain--;
+                    for (int i = graph.inputStart[r]; i < graph.inputStart[r + 1]; i++) {
+                        int id = graph.inputs[i];
+                        if (!available.contains(id)) node(id, childRemaining).start();
+                    }
+                }
+            }
+
+            return CraftPlanner.expand(graph, producers, from, to, reach, remaining, id -> {
+                // même ordre de tests que CraftPlanner.solve: profondeur, dispo, hauteur min
+                if (childRemaining < 0) return List.of();
+                if (available.contains(id)) return List.of(CraftPlanner.CraftPlan.EMPTY);
+                if (reach.minDepth[id] > childRemaining) return List.of();
+                NodeTask t = node(id, childRemaining);
+                t.start();
+                return t.join();
+            }, budget, mode, k, options);
+        }
+    }
+
+    @SuppressWarnings("serial") // tâches ForkJoin, jamais sérialisées
+    private final class NodeTask extends RecursiveTask<List<CraftPlanner.CraftPlan>> {
+        private final Run run;
+        private final int id;
+        private final int remaining;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        NodeTask(Run run, int id, int remaining) {
+            this.run = run;
+            this.id = id;
+            this.remaining = remaining;
+        }
+
+        /** Une seule exécution, quel que soit le nombre de parents qui la demandent. */
+        void start() {
+            if (started.compareAndSet(false, true)) fork();
+        }
+
+        @Override
+        protected List<CraftPlanner.CraftPlan> compute() {
+            return run.expand(graph.producers, graph.producerStart[id], graph.producerStart[id + 1], remaining);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class RootTask extends RecursiveTask<List<CraftPlanner.CraftPlan>> {
+        private final Run run;
+        private final MaterialMatcher target;
+
+        RootTask(Run run, MaterialMatcher target) {
+            this.run = run;
+            this.target = target;
+        }
+
+        @Override
+        protected List<CraftPlanner.CraftPlan> compute() {
+            int id = index.idOf(target);
+            // target hors index: pas de memo (jamais revisité)
+            if (id < 0) return run.expand(graph.anyProducers, 0, graph.anyProducers.length, run.options.maxDepth);
+            return run.expand(graph.producers, graph.producerStart[id], graph.producerStart[id + 1], run.options.maxDepth);
+        }
+    }
+}
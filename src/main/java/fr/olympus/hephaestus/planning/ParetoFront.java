@@ -0,0 +1,114 @@
+package fr.olympus.hephaestus.planning;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Front de Pareto des plans sur (totalCost, minSeconds, factoryLevel), tous minimisés.
+ * a domine b si a <= b sur les trois critères: à vecteur égal, le premier plan ajouté est gardé.
+ *
+ * Les trois agrégats d'une recette (somme, max, max des inputs) sont monotones:
+ * un préfixe de combinaison dominé ne donne que des plans dominés, d'où {@link #combine}
+ * qui élague input par input au lieu de construire le cross product complet.
+ */
+final class ParetoFront {
+
+    private final List<CraftPlanner.CraftPlan> plans = new ArrayList<>();
+
+    /** Ajoute p s'il n'est pas dominé (et retire ceux qu'il domine). */
+    boolean add(CraftPlanner.CraftPlan p) {
+        for (CraftPlanner.CraftPlan kept : plans) {
+            if (dominates(kept, p)) return false;
+        }
+        plans.removeIf(kept -> dominates(p, kept));
+        plans.add(p);
+        return true;
+    }
+
+    int size() {
+        return plans.size();
+    }
+
+    /** Plans non dominés, triés par coût puis durée puis niveau. */
+    List<CraftPlanner.CraftPlan> plans() {
+        List<CraftPlanner.CraftPlan> out = new ArrayList<>(plans);
+        out.sort(ORDER);
+        return out;
+    }
+
+    static final Comparator<CraftPlanner.CraftPlan> ORDER = Comparator
+            .<CraftPlanner.CraftPlan>comparingInt(p -> p.totalCost)
+            .thenComparingDouble(p -> p.minSeconds)
+            .thenComparingInt(p -> p.factoryLevel);
+
+    static boolean dominates(CraftPlanner.CraftPlan a, CraftPlanner.CraftPlan b) {
+        return a.totalCost <= b.totalCost && a.minSeconds <= b.minSeconds && a.factoryLevel <= b.factoryLevel;
+    }
+
+    /** Front de plans quelconques (ex: fronts de plusieurs targets fusionnés). */
+    static List<CraftPlanner.CraftPlan> of(List<CraftPlanner.CraftPlan> plans) {
+        ParetoFront front = new ParetoFront();
+        for (CraftPlanner.CraftPlan p : plans) front.add(p);
+        return front.plans();
+    }
+
+    /**
+     * Combinaisons non dominées d'un plan par input (un tableau par combinaison, ordre des inputs).
+     * Chaque extension d'un préfixe consomme le budget; coupé => préfixes construits jusque-là abandonnés.
+     */
+    static List<CraftPlanner.CraftPlan[]> combine(List<List<CraftPlanner.CraftPlan>> perInputPlans,
+                                                  CraftPlanner.PlanBudget budget) {
+        int n = perInputPlans.size();
+        List<Partial> front = List.of(new Partial(new CraftPlanner.CraftPlan[n], 0, 0f, Integer.MIN_VALUE));
+
+        for (int i = 0; i < n; i++) {
+            List<Partial> next = new ArrayList<>();
+            for (Partial prefix : front) {
+                for (CraftPlanner.CraftPlan p : perInputPlans.get(i)) {
+                    if (budget.exhausted()) return List.of();
+                    budget.consumeOne();
+                    insert(next, prefix.extend(i, p));
+                }
+            }
+            front = next;
+        }
+
+        List<CraftPlanner.CraftPlan[]> out = new ArrayList<>(front.size());
+        for (Partial c : front) out.add(c.picks);
+        return out;
+    }
+
+    private static void insert(List<Partial> front, Partial c) {
+        for (Partial kept : front) {
+            if (kept.dominates(c)) return;
+        }
+        front.removeIf(c::dominates);
+        front.add(c);
+    }
+
+    /** Préfixe de combinaison: plans des inputs [0, i) et leurs agrégats. */
+    private static final class Partial {
+        final CraftPlanner.CraftPlan[] picks;
+        final long cost;
+        final float seconds;
+        final int level;
+
+        Partial(CraftPlanner.CraftPlan[] picks, long cost, float seconds, int level) {
+            this.picks = picks;
+            this.cost = cost;
+            this.seconds = seconds;
+            this.level = level;
+        }
+
+        Partial extend(int i, CraftPlanner.CraftPlan p) {
+            CraftPlanner.CraftPlan[] next = picks.clone();
+            next[i] = p;
+            return new Partial(next, cost + p.totalCost, Math.max(seconds, p.minSeconds), Math.max(level, p.factoryLevel));
+        }
+
+        boolean dominates(Partial o) {
+            return cost <= o.cost && seconds <= o.seconds && level <= o.level;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+import fr.olympus.hephaestus.resources.HephaestusData;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache de résultats de planning entre requêtes.
+ * - clé = (target, available-set, mode, k, options)
+ * - LRU segmenté: la clé choisit un segment (LinkedHashMap en ordre d'accès + son propre lock),
+ *   un get ne bloque que les requêtes du même segment
+ * - borné en nombre d'entrées et en "poids" sur l'ensemble des segments: au-delà, les plus anciennes
+ *   entrées des segments sont retirées à tour de rôle (LRU exact par segment, approché globalement)
+ * - vidé automatiquement quand la version des recettes change (voir {@link HephaestusData#getRecipeVersion()});
+ *   les planners qui l'utilisent gardent leur {@link RecipeIndex}: à reconstruire après le changement
+ *   (une requête en cache d'un planner antérieur lève IllegalStateException au lieu de remplir le cache)
+ *
+ * Poids: 1 par étape de plan gardée (~64 octets), plus ce que retient l'Availability d'une clé
+ * (bitset, Reachability: quelques int par matériau et par recette, 16 int = 1), compté une fois
+ * tant qu'une entrée la référence.
+ *
+ * Thread-safe. Les plans sont immuables, donc partagés tels quels entre appelants.
+ */
+public final class PlanCache {
+
+    /** Compteurs cumulés (snapshot). */
+    public record Stats(long hits, long misses, long evictions, long invalidations, int size, long weight) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+
+    record Key(String target, Availability available, CraftPlanner.Mode mode, int k,
+               int maxDepth, int maxPlans, boolean deduplicate) {
+
+        static Key of(MaterialMatcher target, Availability available, CraftPlanner.Mode mode, int k,
+                      CraftPlanner.PlanOptions options) {
+            return new Key(target.key(), available, mode, k, options.maxDepth, options.maxPlans, options.deduplicate);
+        }
+    }
+
+    private record Entry(List<CraftPlanner.CraftPlan> plans, long weight) {}
+
+    /** Availability retenue par des clés: nombre de clés et poids compté. */
+    private static final class Retained {
+        final long weight;
+        int keys;
+
+        Retained(long weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int INTS_PER_WEIGHT = 16;
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LongSupplier version;
+
+    // chaque segment est gardé par lui-même
+    private final LinkedHashMap<Key, Entry>[] segments;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicInteger evictCursor = new AtomicInteger();
+    private final IdentityHashMap<Availability, Retained> retained = new IdentityHashMap<>(); // gardée par elle-même
+    private volatile long seenVersion;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxEntries nombre max de résultats gardés
+     * @param maxWeight  poids max (étapes des plans gardés + tables retenues par les clés, proxy mémoire)
+     * @param version    version des recettes; tout changement vide le cache
+     */
+    @SuppressWarnings("unchecked")
+    public PlanCache(int maxEntries, long maxWeight, LongSupplier version) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be > 0.");
+        if (maxWeight <= 0) throw new IllegalArgumentException("maxWeight must be > 0.");
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.version = Objects.requireNonNull(version, "version");
+        this.seenVersion = version.getAsLong();
+
+        // puissance de 2 <= maxEntries: un petit cache reste un LRU exact
+        int n = Integer.highestOneBit(Math.min(MAX_SEGMENTS, maxEntries));
+        this.segments = (LinkedHashMap<Key, Entry>[]) new LinkedHashMap<?, ?>[n];
+        for (int i = 0; i < n; i++) segments[i] = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Cache invalidé à chaque enregistrement de recette dans data. L'index des planners n'est pas
+     * reconstruit pour autant: créer un nouvel index (et planner) depuis les recettes à jour.
+     */
+    public static PlanCache forData(HephaestusData data, int maxEntries, long maxWeight) {
+        Objects.requireNonNull(data, "data");
+        return new PlanCache(maxEntries, maxWeight, data::getRecipeVersion);
+    }
+
+    /** Version courante des recettes. */
+    long version() {
+        return version.getAsLong();
+    }
+
+    List<CraftPlanner.CraftPlan> get(Key key) {
+        checkVersion();
+        LinkedHashMap<Key, Entry> segment = segmentFor(key);
+        Entry e;
+        synchronized (segment) {
+            e = segment.get(key);
+        }
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return e.plans;
+    }
+
+    void put(Key key, List<CraftPlanner.CraftPlan> plans) {
+        long w = 1;
+        for (CraftPlanner.CraftPlan p : plans) w += p.stepCount() + 1L;
+        if (w > maxWeight) return; // jamais gardable
+
+        checkVersion();
+        Entry entry = new Entry(List.copyOf(plans), w);
+        LinkedHashMap<Key, Entry> segment = segmentFor(key);
+        Entry old;
+        synchronized (segment) {
+            old = segment.put(key, entry);
+        }
+        if (old == null) {
+            size.incrementAndGet();
+            retain(key.available());
+            weight.addAndGet(w);
+        } else {
+            weight.addAndGet(w - old.weight);
+        }
+        evict(entry);
+    }
+
+    public void clear() {
+        for (LinkedHashMap<Key, Entry> segment : segments) {
+            List<Map.Entry<Key, Entry>> removed;
+            synchronized (segment) {
+                removed = new ArrayList<>(segment.entrySet());
+                segment.clear();
+            }
+            for (Map.Entry<Key, Entry> e : removed) removed(e.getKey(), e.getValue());
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), size.get(), weight.get());
+    }
+
+    private LinkedHashMap<Key, Entry> segmentFor(Key key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (segments.length - 1)];
+    }
+
+    /** Retire les entrées les plus anciennes des segments, à tour de rôle, jusqu'à repasser sous les bornes. */
+    private void evict(Entry keep) {
+        int idle = 0; // segments consécutifs sans rien à retirer
+        while ((size.get() > maxEntries || weight.get() > maxWeight) && idle < segments.length) {
+            LinkedHashMap<Key, Entry> segment = segments[evictCursor.getAndIncrement() & (segments.length - 1)];
+            Map.Entry<Key, Entry> eldest = null;
+            synchronized (segment) {
+                Iterator<Map.Entry<Key, Entry>> it = segment.entrySet().iterator();
+                if (it.hasNext()) {
+                    Map.Entry<Key, Entry> e = it.next();
+                    if (e.getValue() != keep) { // l'entrée qu'on vient d'ajouter part en dernier
+                        eldest = Map.entry(e.getKey(), e.getValue());
+                        it.remove();
+                    }
+                }
+            }
+            if (eldest == null) {
+                idle++;
+                continue;
+            }
+            idle = 0;
+            removed(eldest.getKey(), eldest.getValue());
+            evictions.increment();
+        }
+    }
+
+    private void removed(Key key, Entry entry) {
+        size.decrementAndGet();
+        weight.addAndGet(-entry.weight);
+        release(key.available());
+    }
+
+    private void retain(Availability available) {
+        synchronized (retained) {
+            Retained r = retained.get(available);
+            if (r == null) {
+                r = new Retained((available.retainedInts() + INTS_PER_WEIGHT - 1) / INTS_PER_WEIGHT);
+                retained.put(available, r);
+                weight.addAndGet(r.weight);
+            }
+            r.keys++;
+        }
+    }
+
+    private void release(Availability available) {
+        synchronized (retained) {
+            Retained r = retained.get(available);
+            if (r != null && --r.keys == 0) {
+                retained.remove(available);
+                weight.addAndGet(-r.weight);
+            }
+        }
+    }
+
+    private void checkVersion() {
+        long v = version.getAsLong();
+        if (v == seenVersion) return;
+        synchronized (retained) {
+            if (v == seenVersion) return;
+            seenVersion = v;
+        }
+        if (size.get() > 0) invalidations.increment();
+        clear();
+    }
+}
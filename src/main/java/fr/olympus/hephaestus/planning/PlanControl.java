@@ -0,0 +1,66 @@
+package fr.olympus.hephaestus.planning;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Contrôle d'une requête de planning "anytime":
+ * - deadline (horloge System.nanoTime) et/ou annulation depuis un autre thread
+ * - le planner s'arrête au prochain point de contrôle et rend le meilleur résultat trouvé
+ *   (voir {@link CraftPlanner.PlanResult})
+ *
+ * Un même contrôle peut être partagé par plusieurs requêtes (annulées ensemble).
+ */
+public final class PlanControl {
+
+    private static final PlanControl NONE = new PlanControl(false, 0L);
+
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+
+    private PlanControl(boolean hasDeadline, long deadlineNanos) {
+        this.hasDeadline = hasDeadline;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /** Jamais arrêté (non annulable): requêtes anytime sans limite, ex. pour leurs {@link PlanStats}. */
+    public static PlanControl none() {
+        return NONE;
+    }
+
+    /** Sans deadline, arrêt seulement via {@link #cancel()}. */
+    public static PlanControl cancellable() {
+        return new PlanControl(false, 0L);
+    }
+
+    /** Deadline = maintenant + timeout (ex: 2 ms dans une frame). */
+    public static PlanControl withTimeout(Duration timeout) {
+        Objects.requireNonNull(timeout, "timeout");
+        if (timeout.isNegative()) throw new IllegalArgumentException("timeout must be >= 0.");
+        return new PlanControl(true, System.nanoTime() + timeout.toNanos());
+    }
+
+    /** Deadline absolue, en valeur de System.nanoTime(). */
+    public static PlanControl withDeadline(long deadlineNanos) {
+        return new PlanControl(true, deadlineNanos);
+    }
+
+    public void cancel() {
+        if (this == NONE) throw new IllegalStateException("PlanControl.none() cannot be cancelled.");
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean deadlinePassed() {
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /** true si la requête doit s'arrêter (annulée ou deadline dépassée). */
+    public boolean stopRequested() {
+        return cancelled || deadlinePassed();
+    }
+}
@@ -0,0 +1,76 @@
+package fr.olympus.hephaestus.planning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set de plans déjà vus, indexé par {@link CraftPlanner.CraftPlan#signatureHash()}.
+ * - adressage ouvert sur des long (pas de String ni de boxing)
+ * - même hash => comparaison complète (les vraies collisions restent distinctes)
+ */
+final class PlanDedup {
+
+    private long[] hashes;
+    private CraftPlanner.CraftPlan[] plans;
+    private int size;
+
+    PlanDedup() {
+        this(16);
+    }
+
+    PlanDedup(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        this.hashes = new long[cap];
+        this.plans = new CraftPlanner.CraftPlan[cap];
+    }
+
+    /** true si le plan est nouveau (et l'ajoute), false si un plan équivalent est déjà là. */
+    boolean add(CraftPlanner.CraftPlan plan) {
+        long h = plan.signatureHash();
+        int mask = plans.length - 1;
+        int slot = mix(h) & mask;
+
+        while (plans[slot] != null) {
+            if (hashes[slot] == h && plans[slot].sameSteps(plan)) return false;
+            slot = (slot + 1) & mask;
+        }
+
+        hashes[slot] = h;
+        plans[slot] = plan;
+        if (++size * 2 > plans.length) grow();
+        return true;
+    }
+
+    /** Filtre une liste en gardant le premier de chaque groupe de doublons (ordre conservé). */
+    static List<CraftPlanner.CraftPlan> distinct(List<CraftPlanner.CraftPlan> in) {
+        PlanDedup seen = new PlanDedup(in.size());
+        List<CraftPlanner.CraftPlan> out = new ArrayList<>(in.size());
+        for (CraftPlanner.CraftPlan p : in) {
+            if (seen.add(p)) out.add(p);
+        }
+        return out;
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        CraftPlanner.CraftPlan[] oldPlans = plans;
+        hashes = new long[oldPlans.length * 2];
+        plans = new CraftPlanner.CraftPlan[oldPlans.length * 2];
+        int mask = plans.length - 1;
+
+        for (int i = 0; i < oldPlans.length; i++) {
+            if (oldPlans[i] == null) continue;
+            int slot = mix(oldHashes[i]) & mask;
+            while (plans[slot] != null) slot = (slot + 1) & mask;
+            hashes[slot] = oldHashes[i];
+            plans[slot] = oldPlans[i];
+        }
+    }
+
+    private static int mix(long h) {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return (int) h;
+    }
+}
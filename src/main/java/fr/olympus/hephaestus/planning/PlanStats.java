@@ -0,0 +1,72 @@
+package fr.olympus.hephaestus.planning;
+
+/**
+ * Mesures d'une requête de planning (demandées via {@link CraftPlanner.PlanOptions#withStats()}):
+ * - nodesExpanded: sous-targets réellement résolus (= échecs du memo), memoHits: revisites servies par le memo
+ * - combinationsGenerated: candidats construits (budget maxPlans consommé), combinationsKept: gardés dans les listes
+ * - dedupDropped: candidats écartés comme doublons
+ * - budgetExhaustedAt: candidats construits quand la recherche a été coupée (budget ou PlanControl), -1 sinon
+ * - peakCandidates: plus grande liste de candidats d'un noeud
+ * - tableNanos / searchNanos / finishNanos: passe Knuth, recherche, tri final (+ repli)
+ */
+public record PlanStats(long nodesExpanded,
+                        long memoHits,
+                        long combinationsGenerated,
+                        long combinationsKept,
+                        long dedupDropped,
+                        long budgetExhaustedAt,
+                        int peakCandidates,
+                        long tableNanos,
+                        long searchNanos,
+                        long finishNanos) {
+
+    public long memoMisses() {
+        return nodesExpanded;
+    }
+
+    public long totalNanos() {
+        return tableNanos + searchNanos + finishNanos;
+    }
+
+    /** Cumul de deux requêtes (ex: targets d'un batch); budgetExhaustedAt = première coupe. */
+    public PlanStats plus(PlanStats other) {
+        return new PlanStats(
+                nodesExpanded + other.nodesExpanded,
+                memoHits + other.memoHits,
+                combinationsGenerated + other.combinationsGenerated,
+                combinationsKept + other.combinationsKept,
+                dedupDropped + other.dedupDropped,
+                budgetExhaustedAt >= 0 ? budgetExhaustedAt : other.budgetExhaustedAt,
+                Math.max(peakCandidates, other.peakCandidates),
+                tableNanos + other.tableNanos,
+                searchNanos + other.searchNanos,
+                finishNanos + other.finishNanos);
+    }
+
+    /**
+     * Compteurs mutables d'une requête. Absent (null) quand les stats ne sont pas demandées:
+     * chaque point de mesure ne coûte alors qu'un test de nullité.
+     * Non thread-safe (le planner parallèle n'en crée pas).
+     */
+    static final class Recorder {
+        long nodesExpanded;
+        long memoHits;
+        long generated;
+        long kept;
+        long dedupDropped;
+        long exhaustedAt = -1;
+        int peakCandidates;
+        long tableNanos;
+        long searchNanos;
+        long finishNanos;
+
+        void candidates(int size) {
+            if (size > peakCandidates) peakCandidates = size;
+        }
+
+        PlanStats snapshot() {
+            return new PlanStats(nodesExpanded, memoHits, generated, kept, dedupDropped, exhaustedAt,
+                    peakCandidates, tableNanos, searchNanos, finishNanos);
+        }
+    }
+}
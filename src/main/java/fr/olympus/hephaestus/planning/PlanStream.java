@@ -0,0 +1,234 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+
+import java.util.*;
+
+/**
+ * Plans d'un target en coût croissant, construits à la demande (voir {@link CraftPlanner#planStream}).
+ * - un noeud par (matériau, marge de profondeur) = liste triée, étendue seulement quand on la lit
+ * - chaque noeud fusionne ses recettes comme {@link KBestMerge}, sur des inputs eux-mêmes paresseux
+ * - mémoire ~ plans lus (+ leurs voisins immédiats), pas le nombre total de routes
+ *
+ * Graphe avec cycles: même règle que la DFS de planAll, un matériau déjà sur le chemin (ancêtre dans
+ * sa composante cyclique) n'a aucun plan. La clé d'un noeud d'une composante cyclique inclut donc
+ * ces ancêtres, comme le memo de la DFS: le flux énumère exactement les plans de planAll.
+ * maxPlans borne les candidats construits: le flux s'arrête une fois le budget épuisé.
+ * Non thread-safe, à consommer une seule fois.
+ */
+final class PlanStream implements Iterator<CraftPlanner.CraftPlan> {
+
+    private final RecipeIndex index;
+    private final RecipeGraph graph;
+    private final Availability available;
+    private final Reachability reach;
+    private final CraftPlanner.PlanBudget budget;
+    private final boolean deduplicate;
+
+    private final Map<Long, Node> nodes = new HashMap<>();           // composante acyclique: (id, marge)
+    private final Map<PathKey, Node> pathNodes = new HashMap<>();    // composante cyclique: + ancêtres
+    private final Node noPlan = new Node(List.of());
+    private final Node availablePlan = new Node(List.of(CraftPlanner.CraftPlan.EMPTY));
+
+    private final Node root;
+    private int position;
+
+    PlanStream(RecipeIndex index, MaterialMatcher target, Availability available, CraftPlanner.PlanOptions options) {
+        this.index = index;
+        this.graph = index.graph();
+        this.available = available;
+        this.reach = available.reachability();
+        this.budget = new CraftPlanner.PlanBudget(options.maxPlans);
+        this.deduplicate = options.deduplicate;
+
+        if (available.contains(target)) {
+            this.root = availablePlan;
+        } else {
+            int id = index.idOf(target);
+            // target hors index: pas de memo (jamais revisité)
+            this.root = id >= 0
+                    ? new Node(id, graph.producers, graph.producerStart[id], graph.producerStart[id + 1],
+                               options.maxDepth, graph.cyclicComponent[graph.component[id]] ? new BitSet() : null)
+                    : new Node(id, graph.anyProducers, 0, graph.anyProducers.length, options.maxDepth, null);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return root.get(position) != null;
+    }
+
+    @Override
+    public CraftPlanner.CraftPlan next() {
+        CraftPlanner.CraftPlan plan = root.get(position);
+        if (plan == null) throw new NoSuchElementException();
+        position++;
+        return plan;
+    }
+
+    /**
+     * Plans de l'input id d'un noeud parent à la marge donnée (même ordre de tests que CraftPlanner.solve).
+     * parentPath: ancêtres du parent dans sa composante (null si acyclique), parent compris par l'appelant.
+     */
+    private Node child(int id, int remaining, int parentId, BitSet parentPath) {
+        if (remaining < 0) return noPlan;
+        if (available.contains(id)) return availablePlan;
+        if (reach.minDepth[id] > remaining) return noPlan;
+
+        int component = graph.component[id];
+        if (!graph.cyclicComponent[component]) {
+            long key = ((long) id << 32) | remaining;
+            return nodes.computeIfAbsent(key,
+                    x -> new Node(id, graph.producers, graph.producerStart[id], graph.producerStart[id + 1], remaining, null));
+        }
+
+        // ancêtres de la même composante: ceux du parent + le parent (autre composante: aucun)
+        BitSet path = new BitSet();
+        if (parentId >= 0 && graph.component[parentId] == component) {
+            path.or(parentPath);
+            path.set(graph.localIndex[parentId]);
+        }
+        if (path.get(graph.localIndex[id])) return noPlan; // cycle: id déjà sur le chemin
+        return pathNodes.computeIfAbsent(new PathKey(id, remaining, path),
+                x -> new Node(id, graph.producers, graph.producerStart[id], graph.producerStart[id + 1], remaining, path));
+    }
+
+    /** Clé d'un noeud de composante cyclique (path jamais modifié après construction). */
+    private record PathKey(int id, int remaining, BitSet path) {}
+
+    private static final class Source {
+        final int recipe;
+        final Node[] inputs;
+
+        Source(int recipe, Node[] inputs) {
+            this.recipe = recipe;
+            this.inputs = inputs;
+        }
+    }
+
+    private static final class Candidate {
+        final int source;
+        final int[] picks;
+        final int cost;
+        final int from;
+        final long seq;
+
+        Candidate(int source, int[] picks, int cost, int from, long seq) {
+            this.source = source;
+            this.picks = picks;
+            this.cost = cost;
+            this.from = from;
+            this.seq = seq;
+        }
+    }
+
+    /** Plans d'un (matériau, marge), triés, étendus à la demande. */
+    private final class Node {
+        private final int id;
+        private final int[] producers;   // producteurs = producers[from, to)
+        private final int from;
+        private final int to;
+        private final int remaining;
+        private final BitSet path;       // ancêtres dans la composante cyclique de id, null si acyclique
+        private final List<CraftPlanner.CraftPlan> plans = new ArrayList<>();
+
+        private List<Source> sources;   // null tant que personne n'a lu ce noeud
+        private PriorityQueue<Candidate> frontier;
+        private PlanDedup seen;
+        private long seq;
+        private boolean done;
+
+        /** Liste fixe (input dispo / coupé par maxDepth). */
+        Node(List<CraftPlanner.CraftPlan> fixed) {
+            this.id = -1;
+            this.producers = null;
+            this.from = 0;
+            this.to = 0;
+            this.remaining = -1;
+            this.path = null;
+            this.plans.addAll(fixed);
+            this.done = true;
+        }
+
+        Node(int id, int[] producers, int from, int to, int remaining, BitSet path) {
+            this.id = id;
+            this.producers = producers;
+            this.from = from;
+            this.to = to;
+            this.remaining = remaining;
+            this.path = path;
+        }
+
+        /** i-ème plan (coût croissant), null s'il n'existe pas. */
+        CraftPlanner.CraftPlan get(int i) {
+            while (plans.size() <= i && !done) advance();
+            return i < plans.size() ? plans.get(i) : null;
+        }
+
+        private void start() {
+            sources = new ArrayList<>(to - from);
+            // départage stable: coût, puis ordre des recettes, puis ordre d'insertion
+            frontier = new PriorityQueue<>((a, b) -> {
+                if (a.cost != b.cost) return Integer.compare(a.cost, b.cost);
+                if (a.source != b.source) return Integer.compare(a.source, b.source);
+                return Long.compare(a.seq, b.seq);
+            });
+            if (deduplicate) seen = new PlanDedup();
+
+            for (int p = from; p < to; p++) {
+                int r = producers[p];
+                if (reach.recipeDepth[r] > remaining) continue;
+                int inStart = graph.inputStart[r];
+                Node[] inputs = new Node[graph.inputStart[r + 1] - inStart];
+                int cost = graph.cost[r];
+                boolean ok = true;
+                for (int j = 0; j < inputs.length && ok; j++) {
+                    inputs[j] = child(graph.inputs[inStart + j], remaining - 1, id, path);
+                    CraftPlanner.CraftPlan first = inputs[j].get(0);
+                    if (first == null) ok = false;
+                    else cost += first.totalCost;
+                }
+                if (!ok) continue;
+
+                sources.add(new Source(r, inputs));
+                frontier.add(new Candidate(sources.size() - 1, new int[inputs.length], cost, 0, seq++));
+            }
+        }
+
+        private void advance() {
+            if (sources == null) start();
+
+            while (!budget.exhausted()) {
+                Candidate c = frontier.poll();
+                if (c == null) break;
+
+                Source s = sources.get(c.source);
+                pushSuccessors(c, s);
+
+                CraftPlanner.CraftPlan[] inputs = new CraftPlanner.CraftPlan[c.picks.length];
+                for (int j = 0; j < inputs.length; j++) inputs[j] = s.inputs[j].plans.get(c.picks[j]);
+                CraftPlanner.CraftPlan plan = CraftPlanner.CraftPlan.of(graph, s.recipe, inputs);
+                budget.consumeOne();
+
+                if (seen != null && !seen.add(plan)) continue;
+                plans.add(plan);
+                return;
+            }
+            done = true;
+        }
+
+        /** Voisins immédiats: +1 sur une position >= la dernière incrémentée (cf. KBestMerge). */
+        private void pushSuccessors(Candidate c, Source s) {
+            for (int i = c.from; i < c.picks.length; i++) {
+                int pick = c.picks[i];
+                CraftPlanner.CraftPlan nextPlan = s.inputs[i].get(pick + 1);
+                if (nextPlan == null) continue;
+
+                int[] succ = c.picks.clone();
+                succ[i] = pick + 1;
+                int cost = c.cost - s.inputs[i].plans.get(pick).totalCost + nextPlan.totalCost;
+                frontier.add(new Candidate(c.source, succ, cost, i, seq++));
+            }
+        }
+    }
+}
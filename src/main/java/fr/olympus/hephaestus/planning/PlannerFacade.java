@@ -1,6 +1,7 @@
 package fr.olympus.hephaestus.planning;
 
 import fr.olympus.hephaestus.processing.MaterialMatcher;
+import fr.olympus.hephaestus.processing.ProcessRecipe;
 import fr.olympus.hephaestus.resources.HephaestusData;
 
 import java.util.*;
@@ -19,8 +20,16 @@ public final class PlannerFacade {
                                                      List<MaterialMatcher> available,
                                                      CraftPlanner.PlanOptions opt,
                                                      int expandLimit) {
-        List<CraftPlanner.CraftPlan> plans = allInternal(target, available, opt, expandLimit, Mode.BEST_ONLY, 1);
-        return plans.isEmpty() ? Optional.empty() : Optional.of(plans.get(0));
+        return bestOnly(target, available, opt, expandLimit, PlanControl.none()).best();
+    }
+
+    /** bestOnly anytime: meilleur plan trouvé avant deadline / annulation (voir {@link PlanControl}). */
+    public CraftPlanner.PlanResult bestOnly(MaterialMatcher target,
+                                            List<MaterialMatcher> available,
+                                            CraftPlanner.PlanOptions opt,
+                                            int expandLimit,
+                                            PlanControl control) {
+        return allInternal(target, available, opt, expandLimit, CraftPlanner.Mode.BEST_ONLY, 1, control);
     }
 
     public List<CraftPlanner.CraftPlan> topK(MaterialMatcher target,
@@ -28,55 +37,100 @@ public final class PlannerFacade {
                                              int k,
                                              CraftPlanner.PlanOptions opt,
                                              int expandLimit) {
-        return allInternal(target, available, opt, expandLimit, Mode.TOP_K, k);
+        return topK(target, available, k, opt, expandLimit, PlanControl.none()).plans();
+    }
+
+    public CraftPlanner.PlanResult topK(MaterialMatcher target,
+                                        List<MaterialMatcher> available,
+                                        int k,
+                                        CraftPlanner.PlanOptions opt,
+                                        int expandLimit,
+                                        PlanControl control) {
+        return allInternal(target, available, opt, expandLimit, CraftPlanner.Mode.TOP_K, k, control);
     }
 
     public List<CraftPlanner.CraftPlan> allRoutes(MaterialMatcher target,
                                                   List<MaterialMatcher> available,
                                                   CraftPlanner.PlanOptions opt,
                                                   int expandLimit) {
-        return allInternal(target, available, opt, expandLimit, Mode.ALL, Integer.MAX_VALUE);
+        return allRoutes(target, available, opt, expandLimit, PlanControl.none()).plans();
+    }
+
+    public CraftPlanner.PlanResult allRoutes(MaterialMatcher target,
+                                             List<MaterialMatcher> available,
+                                             CraftPlanner.PlanOptions opt,
+                                             int expandLimit,
+                                             PlanControl control) {
+        return allInternal(target, available, opt, expandLimit, CraftPlanner.Mode.ALL, Integer.MAX_VALUE, control);
     }
 
-    private enum Mode { BEST_ONLY, TOP_K, ALL }
+    /** Front de Pareto (coût, durée, niveau d'usine), voir {@link CraftPlanner#planPareto}. */
+    public List<CraftPlanner.CraftPlan> pareto(MaterialMatcher target,
+                                               List<MaterialMatcher> available,
+                                               CraftPlanner.PlanOptions opt,
+                                               int expandLimit) {
+        return pareto(target, available, opt, expandLimit, PlanControl.none()).plans();
+    }
 
-    private List<CraftPlanner.CraftPlan> allInternal(MaterialMatcher target,
-                                                     List<MaterialMatcher> available,
-                                                     CraftPlanner.PlanOptions opt,
-                                                     int expandLimit,
-                                                     Mode mode,
-                                                     int k) {
+    public CraftPlanner.PlanResult pareto(MaterialMatcher target,
+                                          List<MaterialMatcher> available,
+                                          CraftPlanner.PlanOptions opt,
+                                          int expandLimit,
+                                          PlanControl control) {
+        return allInternal(target, available, opt, expandLimit, CraftPlanner.Mode.PARETO, Integer.MAX_VALUE, control);
+    }
+
+    /** "Qui fabrique X ?" via l'index du planner (pas de scan des recettes). */
+    public List<ProcessRecipe> producersOf(MaterialMatcher target) {
+        return planner.index().producersOf(target);
+    }
+
+    private CraftPlanner.PlanResult allInternal(MaterialMatcher target,
+                                                List<MaterialMatcher> available,
+                                                CraftPlanner.PlanOptions opt,
+                                                int expandLimit,
+                                                CraftPlanner.Mode mode,
+                                                int k,
+                                                PlanControl control) {
+        Objects.requireNonNull(control, "control");
 
         List<MaterialMatcher> concreteTargets = MaterialTargetExpander.expandToConcreteIds(target, data, expandLimit);
 
-        List<CraftPlanner.CraftPlan> all = new ArrayList<>();
+        // demander "ANY" n'a pas de sens comme objectif final => on ignore
+        List<MaterialMatcher> targets = new ArrayList<>(concreteTargets.size());
         for (MaterialMatcher t : concreteTargets) {
-            if (t.getKind() == MaterialMatcher.Kind.ANY) {
-                // demander "ANY" n'a pas de sens comme objectif final => on ignore ou on renvoie vide
-                continue;
-            }
-
-            switch (mode) {
-                case BEST_ONLY -> planner.planBest(t, available, opt).ifPresent(all::add);
-                case TOP_K -> all.addAll(planner.planTopK(t, available, k, opt));
-                case ALL -> all.addAll(planner.planAll(t, available, opt));
-            }
+            if (t.getKind() != MaterialMatcher.Kind.ANY) targets.add(t);
         }
 
-        // Dedup + tri
-        LinkedHashMap<String, CraftPlanner.CraftPlan> map = new LinkedHashMap<>();
-        for (CraftPlanner.CraftPlan p : all) {
-            map.putIfAbsent(p.signature(), p);
+        // un seul batch: inventaire compilé une fois, memo (ou passe Knuth) partagé entre targets
+        Availability avail = planner.compile(available);
+        Map<MaterialMatcher, CraftPlanner.PlanResult> results = planner.planBatch(targets, avail, mode, k, opt, control);
+
+        List<CraftPlanner.CraftPlan> all = new ArrayList<>();
+        boolean proven = true;
+        boolean interrupted = false;
+        PlanStats stats = null; // cumul des targets (opt.withStats())
+        for (CraftPlanner.PlanResult r : results.values()) {
+            all.addAll(r.plans());
+            proven &= r.provenOptimal();
+            interrupted |= r.interrupted();
+            if (r.stats() != null) stats = stats == null ? r.stats() : stats.plus(r.stats());
         }
-        List<CraftPlanner.CraftPlan> out = new ArrayList<>(map.values());
-        out.sort(Comparator.comparingInt(p -> p.totalCost));
 
-        if (mode == Mode.BEST_ONLY) {
-            return out.isEmpty() ? List.of() : List.of(out.getFirst());
+        // fronts de plusieurs targets => front commun
+        if (mode == CraftPlanner.Mode.PARETO) {
+            return new CraftPlanner.PlanResult(ParetoFront.of(all), proven, interrupted, stats);
         }
-        if (mode == Mode.TOP_K && out.size() > k) {
-            return out.subList(0, k);
+
+        // Dedup + tri
+        List<CraftPlanner.CraftPlan> out = PlanDedup.distinct(all);
+        out.sort(Comparator.comparingInt(p -> p.totalCost));
+
+        if (mode == CraftPlanner.Mode.BEST_ONLY && out.size() > 1) {
+            out = List.of(out.getFirst());
+        } else if (mode == CraftPlanner.Mode.TOP_K && out.size() > k) {
+            out = out.subList(0, k);
         }
-        return out;
+        return new CraftPlanner.PlanResult(out, proven, interrupted, stats);
     }
 }
@@ -0,0 +1,108 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+
+import java.util.*;
+
+/**
+ * Planning incrémental d'un target (voir {@link CraftPlanner#session}):
+ * - garde le memo de la dernière résolution + qui dépend de quel sous-target
+ * - un changement d'inventaire n'oublie que les matériaux changés et leurs ancêtres
+ * - le replan réutilise tout le reste (branches et coûts inchangés)
+ *
+ * Coût d'un changement: fermeture (hauteurs min, minorants de coût) réparée depuis les ids changés
+ * ({@link Reachability}), puis recherche des sous-targets oubliés; le travail suit les matériaux
+ * dont une valeur change et leurs recettes. Reste en O(graphe), mémoire seulement: la copie des
+ * tableaux de la fermeture et de l'available-set. Passe complète si ANY est dispo d'un côté ou si
+ * une recette produit ANY; sans cost() >= 0 partout, pas de minorants (rien à réparer).
+ *
+ * Pas thread-safe: une session par inventaire suivi.
+ */
+public final class PlanningSession {
+
+    private final CraftPlanner planner;
+    private final MaterialMatcher target;
+    private final CraftPlanner.Query query;
+
+    private List<CraftPlanner.CraftPlan> plans;
+    private int lastSolved;
+    private int lastInvalidated;
+
+    PlanningSession(CraftPlanner planner, MaterialMatcher target, CraftPlanner.Query query) {
+        this.planner = planner;
+        this.target = target;
+        this.query = query;
+        replan();
+    }
+
+    public MaterialMatcher target() {
+        return target;
+    }
+
+    public Availability available() {
+        return query.available;
+    }
+
+    /** Plans courants, triés par coût. */
+    public List<CraftPlanner.CraftPlan> plans() {
+        return plans;
+    }
+
+    /** Sous-targets résolus au dernier (re)plan. */
+    public int lastSolved() {
+        return lastSolved;
+    }
+
+    /** Sous-targets oubliés par le dernier changement d'inventaire. */
+    public int lastInvalidated() {
+        return lastInvalidated;
+    }
+
+    public List<CraftPlanner.CraftPlan> add(Collection<MaterialMatcher> materials) {
+        return update(materials, List.of());
+    }
+
+    public List<CraftPlanner.CraftPlan> remove(Collection<MaterialMatcher> materials) {
+        return update(List.of(), materials);
+    }
+
+    /** Applique removed puis added à l'inventaire et replanifie ce qui en dépend. */
+    public List<CraftPlanner.CraftPlan> update(Collection<MaterialMatcher> added, Collection<MaterialMatcher> removed) {
+        Availability before = query.available;
+        Availability after = before.withChanges(added, removed);
+        if (after.equals(before)) {
+            lastSolved = 0;
+            lastInvalidated = 0;
+            return plans;
+        }
+
+        if (before.anyAvailable() != after.anyAvailable()) {
+            // ANY change tout
+            lastInvalidated = query.invalidateAll();
+        } else {
+            BitSet changed = before.ids();
+            changed.xor(after.ids());
+            int count = 0;
+            for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+                count += query.invalidate(id);
+            }
+            // fermeture réparée depuis les ids changés (pas de passe complète sur le graphe);
+            // producteurs sautés par la fermeture (hauteurs min / minorants de coût changés) oubliés
+            BitSet changedRecipes = new BitSet();
+            Reachability reach = before.reachability().next(after, changed, changedRecipes);
+            after.useReachability(reach);
+            count += query.invalidatePruningChanges(changedRecipes);
+            lastInvalidated = count;
+        }
+        // keys hors index: seul le target racine peut en être une, et il est toujours re-résolu
+
+        query.use(after);
+        replan();
+        return plans;
+    }
+
+    private void replan() {
+        plans = Collections.unmodifiableList(planner.resolve(target, query));
+        lastSolved = query.solved;
+    }
+}
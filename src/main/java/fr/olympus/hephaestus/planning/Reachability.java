@@ -0,0 +1,375 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.OptionalInt;
+import java.util.PriorityQueue;
+
+/**
+ * Fermeture avant du graphe pour un available-set (une passe BFS, indépendante du target):
+ * - matériau producible ou non
+ * - hauteur min d'un plan par matériau / par recette (même mesure que CraftPlan.height:
+ *   dispo = 0, recette = 1 + max de ses inputs, 0 sans input)
+ * - coût min par matériau (table {@link BestPlanEngine}, sans maxDepth ni budget), si cost() >= 0
+ *
+ * Le planner s'en sert pour écarter sans récursion les producteurs impossibles
+ * et les sous-targets dont la hauteur min dépasse la marge maxDepth restante;
+ * en TOP_K, le coût min sert de minorant admissible (élagage type A*).
+ * Les cycles n'abaissent jamais une hauteur min: c'est un minorant de tout plan.
+ *
+ * Immuable, gardé par l'{@link Availability} (calculé au premier usage, ou réparé depuis
+ * la fermeture précédente d'une {@link PlanningSession}, voir {@link #next}).
+ */
+public final class Reachability {
+
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final RecipeIndex index;
+    private final Availability available;
+    final int[] minDepth;        // par matériau
+    final int[] recipeDepth;     // par recette
+    final int[] deepestProducer; // par matériau: max des recipeDepth finis de ses producteurs (-1 si aucun)
+    final int anyDepth;          // target hors index: min sur les producteurs ANY
+    private volatile BestPlanEngine.Table table; // null si coûts négatifs ou pas encore calculée (après next)
+    final int[] minCost;              // par matériau, null si coûts négatifs (minorants non garantis)
+
+    private Reachability(RecipeIndex index, Availability available) {
+        this.index = index;
+        this.available = available;
+        RecipeGraph g = index.graph();
+        int m = g.materialCount();
+        int n = g.recipeCount();
+
+        this.minDepth = new int[m];
+        this.recipeDepth = new int[n];
+        Arrays.fill(minDepth, UNREACHABLE);
+        Arrays.fill(recipeDepth, UNREACHABLE);
+
+        if (available.anyAvailable()) {
+            Arrays.fill(minDepth, 0);
+        } else {
+            closure(g, available.ids());
+        }
+
+        this.deepestProducer = new int[m];
+        for (int id = 0; id < m; id++) {
+            deepestProducer[id] = deepest(g.producers, g.producerStart[id], g.producerStart[id + 1]);
+        }
+        int any = UNREACHABLE;
+        for (int r : g.anyProducers) any = Math.min(any, recipeDepth[r]);
+        this.anyDepth = any;
+
+        if (g.nonNegativeCosts) {
+            this.table = new BestPlanEngine(index).solve(available);
+            // ANY dispo: la passe ne remplit rien, tout est gratuit
+            this.minCost = available.anyAvailable() ? new int[m] : table.costsById();
+        } else {
+            this.table = null;
+            this.minCost = null;
+        }
+    }
+
+    /**
+     * Réparation depuis from: hauteurs et coûts min recalculés seulement pour les matériaux touchés par changedIds;
+     * changedRecipes reçoit les recettes dont la hauteur min ou le minorant de coût a changé.
+     */
+    private Reachability(Reachability from, Availability available, BitSet changedIds, BitSet changedRecipes) {
+        this.index = from.index;
+        this.available = available;
+        RecipeGraph g = index.graph();
+
+        this.minDepth = from.minDepth.clone();
+        this.recipeDepth = from.recipeDepth.clone();
+        this.deepestProducer = from.deepestProducer.clone();
+        this.anyDepth = from.anyDepth; // aucun producteur ANY (sinon passe complète)
+
+        Repair depths = new Repair(g, minDepth, false);
+        BitSet moved = depths.run(available, changedIds, from.minDepth);
+        BitSet outputs = new BitSet(minDepth.length);
+        for (int id = moved.nextSetBit(0); id >= 0; id = moved.nextSetBit(id + 1)) {
+            for (int c = g.consumerStart[id]; c < g.consumerStart[id + 1]; c++) {
+                int r = g.consumers[c];
+                int d = depths.recipeValue(r);
+                if (d == recipeDepth[r]) continue;
+                recipeDepth[r] = d;
+                changedRecipes.set(r);
+                for (int o = g.outputStart[r]; o < g.outputStart[r + 1]; o++) outputs.set(g.outputs[o]);
+            }
+        }
+        for (int id = outputs.nextSetBit(0); id >= 0; id = outputs.nextSetBit(id + 1)) {
+            deepestProducer[id] = deepest(g.producers, g.producerStart[id], g.producerStart[id + 1]);
+        }
+
+        // table Knuth (plans) au premier usage: la session n'a besoin que des minorants
+        if (g.nonNegativeCosts) {
+            this.minCost = from.minCost.clone();
+            BitSet cheaper = new Repair(g, minCost, true).run(available, changedIds, from.minCost);
+            for (int id = cheaper.nextSetBit(0); id >= 0; id = cheaper.nextSetBit(id + 1)) {
+                for (int c = g.consumerStart[id]; c < g.consumerStart[id + 1]; c++) {
+                    int r = g.consumers[c];
+                    if (bound(g, from.minCost, r) != bound(g, minCost, r)) changedRecipes.set(r);
+                }
+            }
+        } else {
+            this.minCost = null;
+        }
+    }
+
+    static Reachability compute(Availability available) {
+        return new Reachability(available.index(), available);
+    }
+
+    /**
+     * Fermeture de next (même index, ids dispo différant de changedIds) réparée depuis celle-ci
+     * au lieu d'une passe complète. changedRecipes reçoit les recettes dont la hauteur min ou le minorant
+     * de coût ({@link #recipeBound}) diffère d'ici. Passe complète (et comparaison de toutes les recettes)
+     * si ANY est dispo d'un côté ou si une recette produit ANY.
+     */
+    Reachability next(Availability next, BitSet changedIds, BitSet changedRecipes) {
+        if (available.anyAvailable() || next.anyAvailable() || index.graph().anyProducers.length > 0) {
+            Reachability after = compute(next);
+            for (int r = 0; r < recipeDepth.length; r++) {
+                if (recipeDepth[r] != after.recipeDepth[r] || recipeBound(r) != after.recipeBound(r)) changedRecipes.set(r);
+            }
+            return after;
+        }
+        return new Reachability(this, next, changedIds, changedRecipes);
+    }
+
+    /**
+     * BFS par niveaux: un matériau sort de la file dans l'ordre de sa hauteur min,
+     * une recette devient prête quand son dernier input (le plus haut) sort.
+     */
+    private void closure(RecipeGraph g, BitSet availableIds) {
+        int m = minDepth.length;
+        int[] pending = new int[recipeDepth.length];
+        int[] queue = new int[m];
+        int head = 0;
+        int tail = 0;
+
+        for (int id = availableIds.nextSetBit(0); id >= 0; id = availableIds.nextSetBit(id + 1)) {
+            minDepth[id] = 0;
+            queue[tail++] = id;
+        }
+        for (int r = 0; r < pending.length; r++) {
+            pending[r] = g.inputStart[r + 1] - g.inputStart[r];
+            if (pending[r] == 0) tail = ready(g, r, 0, queue, tail);
+        }
+
+        while (head < tail) {
+            int id = queue[head++];
+            for (int c = g.consumerStart[id]; c < g.consumerStart[id + 1]; c++) {
+                int r = g.consumers[c];
+                if (--pending[r] == 0) tail = ready(g, r, minDepth[id] + 1, queue, tail);
+            }
+        }
+    }
+
+    private int ready(RecipeGraph g, int r, int depth, int[] queue, int tail) {
+        recipeDepth[r] = depth;
+        for (int o = g.outputStart[r]; o < g.outputStart[r + 1]; o++) {
+            int out = g.outputs[o];
+            if (minDepth[out] == UNREACHABLE) {
+                minDepth[out] = depth;
+                queue[tail++] = out;
+            }
+        }
+        if (g.producesAny[r]) {
+            for (int id = 0; id < minDepth.length; id++) {
+                if (minDepth[id] == UNREACHABLE) {
+                    minDepth[id] = depth;
+                    queue[tail++] = id;
+                }
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * Plus petite valeur d'une dérivation par matériau, réparée sur place après un changement d'available-set
+     * (dispo = 0; recette = 1 + max de ses inputs, 0 sans input, ou cost() + somme de ses inputs):
+     * - retraits: les matériaux dont une recette minimale consomme un matériau retiré (transitivement)
+     *   repartent de l'infini, ré-amorcés par leurs autres producteurs
+     * - puis propagation type Dijkstra depuis ces matériaux et les ajouts (valeurs qui baissent seulement)
+     * Le travail suit les matériaux touchés et leurs recettes, pas la taille du graphe.
+     */
+    private static final class Repair {
+        private final RecipeGraph g;
+        private final int[] value;
+        private final boolean costs; // coûts (cost() >= 0: Dijkstra reste exact) sinon hauteurs
+
+        Repair(RecipeGraph g, int[] value, boolean costs) {
+            this.g = g;
+            this.value = value;
+            this.costs = costs;
+        }
+
+        int recipeValue(int r) {
+            int from = g.inputStart[r];
+            int to = g.inputStart[r + 1];
+            if (costs) {
+                long v = g.cost[r];
+                for (int i = from; i < to; i++) {
+                    int x = value[g.inputs[i]];
+                    if (x == UNREACHABLE) return UNREACHABLE;
+                    v += x;
+                }
+                return v >= UNREACHABLE ? UNREACHABLE : (int) v; // saturé comme BestPlanEngine
+            }
+            if (from == to) return 0;
+            int v = 0;
+            for (int i = from; i < to; i++) {
+                int x = value[g.inputs[i]];
+                if (x == UNREACHABLE) return UNREACHABLE;
+                v = Math.max(v, x);
+            }
+            return v + 1;
+        }
+
+        /** Répare value pour next (ids dispo = ceux d'avant ^ changedIds); rend les matériaux changés. */
+        BitSet run(Availability next, BitSet changedIds, int[] before) {
+            int m = value.length;
+            BitSet reset = new BitSet(m);
+            int[] stack = new int[m];
+            int top = 0;
+
+            // valeurs d'avant encore en place: une recette est minimale pour o si sa valeur est celle de o
+            for (int id = changedIds.nextSetBit(0); id >= 0; id = changedIds.nextSetBit(id + 1)) {
+                if (next.contains(id)) continue;
+                reset.set(id);
+                stack[top++] = id;
+            }
+            while (top > 0) {
+                int id = stack[--top];
+                for (int c = g.consumerStart[id]; c < g.consumerStart[id + 1]; c++) {
+                    int r = g.consumers[c];
+                    int v = recipeValue(r);
+                    if (v == UNREACHABLE) continue;
+                    for (int o = g.outputStart[r]; o < g.outputStart[r + 1]; o++) {
+                        int out = g.outputs[o];
+                        if (value[out] == v && !reset.get(out)) {
+                            reset.set(out);
+                            stack[top++] = out;
+                        }
+                    }
+                }
+            }
+
+            PriorityQueue<long[]> queue = new PriorityQueue<>(Comparator.comparingLong(e -> e[0]));
+            BitSet touched = (BitSet) reset.clone();
+            touched.or(changedIds);
+            for (int id = reset.nextSetBit(0); id >= 0; id = reset.nextSetBit(id + 1)) value[id] = UNREACHABLE;
+            for (int id = reset.nextSetBit(0); id >= 0; id = reset.nextSetBit(id + 1)) {
+                int v = next.contains(id) ? 0 : UNREACHABLE;
+                for (int p = g.producerStart[id]; p < g.producerStart[id + 1]; p++) {
+                    v = Math.min(v, recipeValue(g.producers[p]));
+                }
+                if (v == UNREACHABLE) continue;
+                value[id] = v;
+                queue.add(new long[]{v, id});
+            }
+            for (int id = changedIds.nextSetBit(0); id >= 0; id = changedIds.nextSetBit(id + 1)) {
+                if (next.contains(id) && value[id] != 0) {
+                    value[id] = 0;
+                    queue.add(new long[]{0, id});
+                }
+            }
+
+            BitSet done = new BitSet(m);
+            while (!queue.isEmpty()) {
+                long[] e = queue.poll();
+                int id = (int) e[1];
+                if (done.get(id) || e[0] != value[id]) continue;
+                done.set(id);
+                for (int c = g.consumerStart[id]; c < g.consumerStart[id + 1]; c++) {
+                    int r = g.consumers[c];
+                    int v = recipeValue(r);
+                    if (v == UNREACHABLE) continue;
+                    for (int o = g.outputStart[r]; o < g.outputStart[r + 1]; o++) {
+                        int out = g.outputs[o];
+                        if (v < value[out]) {
+                            value[out] = v;
+                            touched.set(out);
+                            queue.add(new long[]{v, out});
+                        }
+                    }
+                }
+            }
+
+            BitSet changed = new BitSet(m);
+            for (int id = touched.nextSetBit(0); id >= 0; id = touched.nextSetBit(id + 1)) {
+                if (value[id] != before[id]) changed.set(id);
+            }
+            return changed;
+        }
+    }
+
+    private int deepest(int[] producers, int from, int to) {
+        int d = -1;
+        for (int p = from; p < to; p++) {
+            int rd = recipeDepth[producers[p]];
+            if (rd != UNREACHABLE) d = Math.max(d, rd);
+        }
+        return d;
+    }
+
+    public Availability available() {
+        return available;
+    }
+
+    /** true si au moins un plan (sans limite de profondeur) existe pour target. */
+    public boolean isProducible(MaterialMatcher target) {
+        return minDepth(target).isPresent();
+    }
+
+    /** Hauteur min d'un plan pour target (0 = déjà dispo), vide si impossible. */
+    public OptionalInt minDepth(MaterialMatcher target) {
+        if (available.contains(target)) return OptionalInt.of(0);
+        int id = index.idOf(target);
+        int d = id >= 0 ? minDepth[id] : anyDepth;
+        return d == UNREACHABLE ? OptionalInt.empty() : OptionalInt.of(d);
+    }
+
+    /** Taille approximative des tableaux gardés, en int (table Knuth: dist + choice par matériau). */
+    long retainedInts() {
+        long n = 16L + minDepth.length + recipeDepth.length + deepestProducer.length;
+        BestPlanEngine.Table t = table;
+        if (minCost != null && (t == null || minCost != t.costsById())) n += minCost.length;
+        if (t != null) n += 2L * minDepth.length;
+        return n;
+    }
+
+    /** Table Knuth de cet available-set (null si une recette a un coût négatif). */
+    BestPlanEngine.Table table() {
+        BestPlanEngine.Table t = table;
+        if (t == null && minCost != null) {
+            t = new BestPlanEngine(index).solve(available); // réparée par next(): passe au premier usage
+            table = t;                                       // course bénigne, même table
+        }
+        return t;
+    }
+
+    /** Hauteur min de la recette r (position dans {@link RecipeIndex#recipes()}), -1 si jamais faisable. */
+    public int recipeDepth(int r) {
+        return recipeDepth[r] == UNREACHABLE ? -1 : recipeDepth[r];
+    }
+
+    /** Minorant du coût d'un plan finissant par la recette r (0 sans minorants). */
+    long recipeBound(int r) {
+        return minCost == null ? 0 : bound(index.graph(), minCost, r);
+    }
+
+    private static long bound(RecipeGraph g, int[] minCost, int r) {
+        long bound = g.cost[r];
+        for (int i = g.inputStart[r]; i < g.inputStart[r + 1]; i++) bound += minCost[g.inputs[i]];
+        return bound;
+    }
+
+    /** Un producteur de id a été écarté à cette marge parce que trop profond (résultat dépendant de maxDepth). */
+    boolean depthCutAt(int id, int remaining) {
+        return remaining < deepestProducer[id];
+    }
+}
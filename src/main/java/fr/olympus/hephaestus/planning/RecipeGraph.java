@@ -0,0 +1,299 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+import fr.olympus.hephaestus.processing.ProcessRecipe;
+import fr.olympus.hephaestus.processing.TimeWindow;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Graphe biparti matériaux / recettes compilé en tableaux int (CSR), pour le chemin chaud du planning:
+ * - matériau (id interné de {@link RecipeIndex}) -> recettes productrices (ordre d'origine, ANY inclus)
+ * - recette (position dans {@link RecipeIndex#recipes()}) -> ids de ses inputs / outputs
+ * - matériau -> recettes qui le consomment (une entrée par occurrence)
+ * - coûts, durée min (TimeWindow.minSeconds), niveau d'usine min, hash d'étape
+ *   et {@link CraftPlanner.PlanStep} précalculés par recette
+ * - composantes fortement connexes du graphe "matériau -> inputs de ses producteurs" (Tarjan),
+ *   numérotées inputs d'abord (ordre topologique inverse); seules les composantes cycliques
+ *   ont des résultats dépendants du chemin
+ *
+ * Liste d'une entrée x dans un CSR = tab[start[x] .. start[x + 1]).
+ * Immuable une fois construit => lisible depuis n'importe quel thread sans synchronisation.
+ */
+public final class RecipeGraph {
+
+    final ProcessRecipe[] recipes;
+    final int[] cost;
+    final float[] minSeconds;   // 0 sans TimeWindow
+    final int[] factoryLevel;   // selector().minFactoryLevel, Integer.MIN_VALUE sans selector
+    final long[] stepHash;
+    final CraftPlanner.PlanStep[] steps;
+    final boolean[] producesAny;
+
+    // recette -> inputs (ordre de r.inputs(), doublons gardés)
+    final int[] inputStart;
+    final int[] inputs;
+    // recette -> outputs hors ANY
+    final int[] outputStart;
+    final int[] outputs;
+
+    // matériau -> producteurs
+    final int[] producerStart;
+    final int[] producers;
+    // producteurs d'une key hors index (= recettes ANY)
+    final int[] anyProducers;
+
+    // matériau -> consommateurs
+    final int[] consumerStart;
+    final int[] consumers;
+
+    final boolean nonNegativeCosts;
+
+    // matériau -> composante fortement connexe, et position dans celle-ci
+    final int[] component;
+    final int[] localIndex;
+    final int componentCount;
+    final boolean[] cyclicComponent; // > 1 matériau, ou un matériau input de son propre producteur
+    final boolean hasCycles;
+
+    RecipeGraph(RecipeIndex index) {
+        List<ProcessRecipe> list = index.recipes();
+        int n = list.size();
+        int m = index.size();
+
+        this.recipes = list.toArray(new ProcessRecipe[0]);
+        this.cost = new int[n];
+        this.minSeconds = new float[n];
+        this.factoryLevel = new int[n];
+        this.stepHash = new long[n];
+        this.steps = new CraftPlanner.PlanStep[n];
+        this.producesAny = new boolean[n];
+        this.inputStart = new int[n + 1];
+        this.outputStart = new int[n + 1];
+
+        boolean nonNegative = true;
+        int inCount = 0;
+        int outCount = 0;
+        int anyCount = 0;
+        for (int r = 0; r < n; r++) {
+            ProcessRecipe recipe = recipes[r];
+            cost[r] = recipe.cost();
+            if (cost[r] < 0) nonNegative = false;
+            TimeWindow window = recipe.timeWindowOrNull();
+            minSeconds[r] = window == null ? 0f : window.minSeconds();
+            factoryLevel[r] = recipe.selector() == null ? Integer.MIN_VALUE : recipe.selector().minFactoryLevel();
+            stepHash[r] = CraftPlanner.CraftPlan.stepHash(recipe);
+            steps[r] = new CraftPlanner.PlanStep(recipe, r);
+
+            inCount += recipe.inputs().size();
+            for (MaterialMatcher out : recipe.outputs()) {
+                if (out.getKind() == MaterialMatcher.Kind.ANY) producesAny[r] = true;
+                else outCount++;
+            }
+            if (producesAny[r]) anyCount++;
+        }
+        this.nonNegativeCosts = nonNegative;
+
+        this.inputs = new int[inCount];
+        this.outputs = new int[outCount];
+        this.anyProducers = new int[anyCount];
+        int[] consumerCount = new int[m];
+        int[] producerCount = new int[m];
+        int in = 0;
+        int out = 0;
+        int any = 0;
+        for (int r = 0; r < n; r++) {
+            inputStart[r] = in;
+            for (MaterialMatcher mm : recipes[r].inputs()) {
+                int id = index.idOf(mm);
+                inputs[in++] = id;
+                consumerCount[id]++;
+            }
+            outputStart[r] = out;
+            for (MaterialMatcher mm : recipes[r].outputs()) {
+                if (mm.getKind() != MaterialMatcher.Kind.ANY) outputs[out++] = index.idOf(mm);
+            }
+            if (producesAny[r]) anyProducers[any++] = r;
+        }
+        inputStart[n] = in;
+        outputStart[n] = out;
+
+        // producteurs: mêmes listes que RecipeIndex.producersOf(id) (un output répété ne compte qu'une fois)
+        for (int id = 0; id < m; id++) producerCount[id] = index.producersOf(id).size();
+        this.producerStart = prefixSums(producerCount);
+        this.producers = new int[producerStart[m]];
+        int[] fill = producerStart.clone();
+        for (int r = 0; r < n; r++) {
+            if (producesAny[r]) {
+                for (int id = 0; id < m; id++) producers[fill[id]++] = r;
+                continue;
+            }
+            for (int o = outputStart[r]; o < outputStart[r + 1]; o++) {
+                int id = outputs[o];
+                if (fill[id] > producerStart[id] && producers[fill[id] - 1] == r) continue; // output répété
+                producers[fill[id]++] = r;
+            }
+        }
+
+        this.consumerStart = prefixSums(consumerCount);
+        this.consumers = new int[consumerStart[m]];
+        fill = consumerStart.clone();
+        for (int r = 0; r < n; r++) {
+            for (int i = inputStart[r]; i < inputStart[r + 1]; i++) consumers[fill[inputs[i]]++] = r;
+        }
+
+        this.component = new int[m];
+        this.localIndex = new int[m];
+        boolean[] cyclic = new boolean[m];
+        this.componentCount = condense(cyclic);
+        this.cyclicComponent = Arrays.copyOf(cyclic, componentCount);
+        boolean cycles = false;
+        for (boolean c : cyclicComponent) cycles |= c;
+        this.hasCycles = cycles;
+    }
+
+    /**
+     * Tarjan itératif (pas de récursion: graphes profonds). Une composante est numérotée quand
+     * toutes celles qu'elle atteint le sont déjà => numéro croissant = inputs avant outputs.
+     */
+    private int condense(boolean[] cyclic) {
+        int m = component.length;
+        int[] order = new int[m];
+        int[] low = new int[m];
+        Arrays.fill(order, -1);
+        boolean[] onStack = new boolean[m];
+        boolean[] selfLoop = new boolean[m];
+        int[] stack = new int[m];
+        int[] call = new int[m];
+        int[] producerPos = new int[m];
+        int[] inputPos = new int[m];
+        int sp = 0;
+        int counter = 0;
+        int count = 0;
+
+        for (int root = 0; root < m; root++) {
+            if (order[root] >= 0) continue;
+            int cp = 0;
+            order[root] = low[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            producerPos[root] = producerStart[root];
+            inputPos[root] = -1;
+            call[cp++] = root;
+
+            while (cp > 0) {
+                int v = call[cp - 1];
+                int w = nextInput(v, producerPos, inputPos);
+                if (w >= 0) {
+                    if (w == v) selfLoop[v] = true;
+                    if (order[w] < 0) {
+                        order[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        producerPos[w] = producerStart[w];
+                        inputPos[w] = -1;
+                        call[cp++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                    continue;
+                }
+
+                cp--;
+                if (cp > 0) low[call[cp - 1]] = Math.min(low[call[cp - 1]], low[v]);
+                if (low[v] != order[v]) continue;
+
+                int size = 0;
+                int x;
+                do {
+                    x = stack[--sp];
+                    onStack[x] = false;
+                    component[x] = count;
+                    localIndex[x] = size++;
+                    if (selfLoop[x]) cyclic[count] = true;
+                } while (x != v);
+                if (size > 1) cyclic[count] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Arc suivant de v (inputs de ses producteurs, dans l'ordre), -1 si épuisé. */
+    private int nextInput(int v, int[] producerPos, int[] inputPos) {
+        while (producerPos[v] < producerStart[v + 1]) {
+            int r = producers[producerPos[v]];
+            if (inputPos[v] < 0) inputPos[v] = inputStart[r];
+            if (inputPos[v] < inputStart[r + 1]) return inputs[inputPos[v]++];
+            producerPos[v]++;
+            inputPos[v] = -1;
+        }
+        return -1;
+    }
+
+    private static int[] prefixSums(int[] counts) {
+        int[] start = new int[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) start[i + 1] = start[i] + counts[i];
+        return start;
+    }
+
+    public int materialCount() {
+        return producerStart.length - 1;
+    }
+
+    public int recipeCount() {
+        return recipes.length;
+    }
+
+    public ProcessRecipe recipe(int r) {
+        return recipes[r];
+    }
+
+    public int cost(int r) {
+        return cost[r];
+    }
+
+    public int inputCount(int r) {
+        return inputStart[r + 1] - inputStart[r];
+    }
+
+    /** Id du j-ème input de la recette r. */
+    public int input(int r, int j) {
+        return inputs[inputStart[r] + j];
+    }
+
+    public int producerCount(int id) {
+        return producerStart[id + 1] - producerStart[id];
+    }
+
+    /** Index (dans recipes()) du i-ème producteur du matériau id. */
+    public int producer(int id, int i) {
+        return producers[producerStart[id] + i];
+    }
+
+    /** Nombre de composantes fortement connexes (matériaux). */
+    public int componentCount() {
+        return componentCount;
+    }
+
+    /** Composante du matériau id; numéro croissant = inputs avant outputs. */
+    public int componentOf(int id) {
+        return component[id];
+    }
+
+    /** true si la composante contient un cycle matériau -> recette -> input. */
+    public boolean isCyclic(int component) {
+        return cyclicComponent[component];
+    }
+
+    /** true si au moins une composante est cyclique. */
+    public boolean hasCycles() {
+        return hasCycles;
+    }
+
+    /** true si toutes les recettes ont un coût >= 0 (Knuth / Dijkstra exact). */
+    public boolean nonNegativeCosts() {
+        return nonNegativeCosts;
+    }
+}
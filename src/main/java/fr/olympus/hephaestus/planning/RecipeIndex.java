@@ -0,0 +1,171 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.MaterialMatcher;
+import fr.olympus.hephaestus.processing.ProcessRecipe;
+
+import java.util.*;
+
+/**
+ * Index inversé "output -> producteurs", construit une seule fois.
+ * - chaque key d'output pointe vers les recettes qui la produisent
+ * - les recettes avec un output ANY sont rangées à part (elles couvrent tout)
+ * - l'ordre des recettes d'origine est conservé dans chaque bucket
+ *
+ * "out couvre target" = même key, ou out ANY (voir {@link #producersOf}).
+ *
+ * Chaque key rencontrée (inputs + outputs) est internée en un id int dense
+ * [0, size()) => le planner peut indexer ses tables par id au lieu de String.
+ *
+ * Le graphe compilé ({@link #graph()}) reprend ces listes en tableaux int.
+ *
+ * Immuable => partageable entre planners / threads.
+ */
+public final class RecipeIndex {
+
+    private final List<ProcessRecipe> recipes;
+    private final Map<String, List<ProcessRecipe>> producersByKey;
+    private final List<ProcessRecipe> anyProducers;
+
+    private final Map<String, Integer> idsByKey;
+    private final MaterialMatcher[] matchersById;
+    private final List<List<ProcessRecipe>> producersById;
+    private final RecipeGraph graph;
+
+    public RecipeIndex(List<ProcessRecipe> recipes) {
+        this.recipes = List.copyOf(recipes);
+
+        // 1) toutes les keys d'output connues
+        Map<String, List<ProcessRecipe>> byKey = new HashMap<>();
+        for (ProcessRecipe r : this.recipes) {
+            for (MaterialMatcher out : r.outputs()) {
+                if (out.getKind() != MaterialMatcher.Kind.ANY) {
+                    byKey.computeIfAbsent(out.key(), k -> new ArrayList<>());
+                }
+            }
+        }
+
+        // 2) remplissage dans l'ordre des recettes (ANY => dans tous les buckets)
+        List<ProcessRecipe> any = new ArrayList<>();
+        for (ProcessRecipe r : this.recipes) {
+            if (producesAny(r)) {
+                any.add(r);
+                for (List<ProcessRecipe> bucket : byKey.values()) bucket.add(r);
+                continue;
+            }
+            Set<String> seen = new HashSet<>();
+            for (MaterialMatcher out : r.outputs()) {
+                if (seen.add(out.key())) byKey.get(out.key()).add(r);
+            }
+        }
+
+        Map<String, List<ProcessRecipe>> frozen = new HashMap<>();
+        for (Map.Entry<String, List<ProcessRecipe>> e : byKey.entrySet()) {
+            frozen.put(e.getKey(), List.copyOf(e.getValue()));
+        }
+        this.producersByKey = Map.copyOf(frozen);
+        this.anyProducers = List.copyOf(any);
+
+        // 3) interning: key -> id dense
+        Map<String, Integer> ids = new HashMap<>();
+        List<MaterialMatcher> matchers = new ArrayList<>();
+        for (ProcessRecipe r : this.recipes) {
+            for (MaterialMatcher m : r.inputs()) intern(m, ids, matchers);
+            for (MaterialMatcher m : r.outputs()) intern(m, ids, matchers);
+        }
+        this.idsByKey = Map.copyOf(ids);
+        this.matchersById = matchers.toArray(new MaterialMatcher[0]);
+
+        List<List<ProcessRecipe>> byId = new ArrayList<>(matchersById.length);
+        for (MaterialMatcher m : matchersById) byId.add(producersOf(m));
+        this.producersById = List.copyOf(byId);
+
+        // 4) version tableaux int pour le chemin chaud (dernière étape: lit l'index complet)
+        this.graph = new RecipeGraph(this);
+    }
+
+    private static void intern(MaterialMatcher m, Map<String, Integer> ids, List<MaterialMatcher> matchers) {
+        if (ids.putIfAbsent(m.key(), matchers.size()) == null) matchers.add(m);
+    }
+
+    /** Nombre d'ids internés. */
+    public int size() {
+        return matchersById.length;
+    }
+
+    /** Id interné de target, ou -1 si sa key n'apparaît dans aucune recette. */
+    public int idOf(MaterialMatcher target) {
+        Integer id = idsByKey.get(target.key());
+        return id == null ? -1 : id;
+    }
+
+    public MaterialMatcher matcherOf(int id) {
+        return matchersById[id];
+    }
+
+    /** Comme {@link #producersOf(MaterialMatcher)} mais sans hash de String. */
+    public List<ProcessRecipe> producersOf(int id) {
+        return producersById.get(id);
+    }
+
+    /** Recettes qui peuvent produire target (producteurs ANY inclus). */
+    public List<ProcessRecipe> producersOf(MaterialMatcher target) {
+        Objects.requireNonNull(target, "target");
+        return producersByKey.getOrDefault(target.key(), anyProducers);
+    }
+
+    /** Recettes dont un output est ANY. */
+    public List<ProcessRecipe> anyProducers() {
+        return anyProducers;
+    }
+
+    public List<ProcessRecipe> recipes() {
+        return recipes;
+    }
+
+    /** Graphe matériaux / recettes en tableaux int (CSR), utilisé par les planners. */
+    public RecipeGraph graph() {
+        return graph;
+    }
+
+    /**
+     * true si un cycle matériau -> recette -> input est atteignable depuis target
+     * (la recherche s'arrête sur les matériaux dispo).
+     */
+    boolean reachesCycle(MaterialMatcher target, Availability available) {
+        if (!graph.hasCycles) return false;
+        byte[] state = new byte[size()]; // 0 = jamais vu, 1 = sur le chemin, 2 = fini
+        int id = idOf(target);
+        if (id >= 0) return cycleFrom(id, available, state);
+
+        for (int r : graph.anyProducers) {
+            if (inputsReachCycle(r, available, state)) return true;
+        }
+        return false;
+    }
+
+    private boolean cycleFrom(int id, Availability available, byte[] state) {
+        if (available.contains(id) || state[id] == 2) return false;
+        if (state[id] == 1) return true;
+
+        state[id] = 1;
+        for (int p = graph.producerStart[id]; p < graph.producerStart[id + 1]; p++) {
+            if (inputsReachCycle(graph.producers[p], available, state)) return true;
+        }
+        state[id] = 2;
+        return false;
+    }
+
+    private boolean inputsReachCycle(int r, Availability available, byte[] state) {
+        for (int i = graph.inputStart[r]; i < graph.inputStart[r + 1]; i++) {
+            if (cycleFrom(graph.inputs[i], available, state)) return true;
+        }
+        return false;
+    }
+
+    private static boolean producesAny(ProcessRecipe r) {
+        for (MaterialMatcher out : r.outputs()) {
+            if (out.getKind() == MaterialMatcher.Kind.ANY) return true;
+        }
+        return false;
+    }
+}
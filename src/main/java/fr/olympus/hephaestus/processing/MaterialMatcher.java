@@ -18,11 +18,13 @@ public final class MaterialMatcher {
     private final Kind kind;
     private final String materialId;          // pour ID
     private final Set<String> categoryKeys;   // enum.name() triés
+    private final String key;                 // calculée une fois (matcher immuable)
 
     private MaterialMatcher(Kind kind, String materialId, Set<String> categoryKeys) {
         this.kind = Objects.requireNonNull(kind, "kind");
         this.materialId = materialId;
         this.categoryKeys = categoryKeys == null ? null : Set.copyOf(categoryKeys);
+        this.key = computeKey(kind, materialId, categoryKeys);
     }
 
     public static MaterialMatcher any() {
@@ -71,6 +73,11 @@ public final class MaterialMatcher {
     }
 
     public String key() {
+        return key;
+    }
+
+    // categoryKeys brut (TreeSet trié) => même key quel que soit l'ordre d'entrée
+    private static String computeKey(Kind kind, String materialId, Set<String> categoryKeys) {
         return switch (kind) {
             case ANY -> "ANY";
             case ID -> "ID:" + materialId;
@@ -80,8 +87,8 @@ public final class MaterialMatcher {
     }
 
     @Override public String toString() { return key(); }
-    @Override public int hashCode() { return Objects.hash(key()); }
+    @Override public int hashCode() { return key.hashCode(); }
     @Override public boolean equals(Object o) {
-        return (o instanceof MaterialMatcher other) && Objects.equals(this.key(), other.key());
+        return (o instanceof MaterialMatcher other) && this.key.equals(other.key);
     }
 }
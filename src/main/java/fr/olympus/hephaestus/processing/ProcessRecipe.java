@@ -4,6 +4,13 @@ import fr.olympus.hephaestus.register.RecipeSelector;
 
 import java.util.List;
 
+/**
+ * Recette: description pour le planner et callbacks runtime d'une session de {@link fr.olympus.hephaestus.factory.Factory}.
+ *
+ * Une instance est partagée par toutes les factories qui l'ont ajoutée. Ticker des factories
+ * en parallèle (FactoryWorld avec pool) appelle la même recette depuis plusieurs threads:
+ * elle doit alors être sans état mutable ou thread-safe. En tick séquentiel, aucune contrainte.
+ */
 public interface ProcessRecipe {
 
     // ---- planning ----
@@ -14,6 +21,21 @@ public interface ProcessRecipe {
     List<MaterialMatcher> outputs();
     int cost();
 
+    // ---- quantités (voir BillOfMaterials) ----
+    /** Unités du i-ème input (inputs().get(i)) consommées par exécution. */
+    default int inputAmount(int i) {
+        return 1;
+    }
+
+    /** Unités de output produites par exécution: par défaut ses occurrences dans outputs() (ANY compris). */
+    default int outputAmount(MaterialMatcher output) {
+        int n = 0;
+        for (MaterialMatcher o : outputs()) {
+            if (o.equals(output) || o.getKind() == MaterialMatcher.Kind.ANY) n++;
+        }
+        return n;
+    }
+
     // ---- runtime selection ----
     int priority();
     int specificityScore();
@@ -21,8 +43,30 @@ public interface ProcessRecipe {
 
     TimeWindow timeWindowOrNull();
 
+    /**
+     * Appelé par une Factory sans session pour choisir sa recette. Par défaut ({@link #prefilterByInputs()}),
+     * seulement si contents couvre les inputs ID (multiplicité comprise) et les inputs catégorie.
+     */
     boolean canStart(ProcessContext ctx, fr.olympus.hephaestus.resources.HephaestusData data);
 
+    /**
+     * true: une Factory n'appelle canStart que si contents contient déjà inputs() (préfiltre indexé).
+     * Retourner false si canStart accepte d'autres contenus ou du stock tenu ailleurs:
+     * canStart est alors appelé à chaque sélection.
+     */
+    default boolean prefilterByInputs() {
+        return true;
+    }
+
+    /**
+     * false: onTick et onOverProcessed ne sont pas appelés et tryComplete ne dépend que de la phase,
+     * de ctx et des events => une factory peut n'être tickée qu'aux changements de phase de la fenêtre
+     * (voir FactoryWorld). Sans effet pour une recette sans TimeWindow.
+     */
+    default boolean needsTickCallbacks() {
+        return true;
+    }
+
     default void onTick(ProcessContext ctx, fr.olympus.hephaestus.resources.HephaestusData data, float elapsedSeconds, ProcessingPhase phase) {}
     default void onEvent(ProcessContext ctx, fr.olympus.hephaestus.resources.HephaestusData data, FactoryEvent event, float elapsedSeconds, ProcessingPhase phase) {}
 
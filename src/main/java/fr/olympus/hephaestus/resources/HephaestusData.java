@@ -9,6 +9,7 @@ import fr.olympus.hephaestus.register.ProcessRecipeRegistryEntry;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class HephaestusData {
 
@@ -17,6 +18,9 @@ public final class HephaestusData {
     private final Map<String, FactoryRegistryEntry> factories = new ConcurrentHashMap<>();
     private final List<ProcessRecipeRegistryEntry> recipeEntries = Collections.synchronizedList(new ArrayList<>());
 
+    // incrémentée à chaque changement du set de recettes (invalidation des caches de planning)
+    private final AtomicLong recipeVersion = new AtomicLong();
+
     public Map<String, Material> getMaterials() {
         return Collections.unmodifiableMap(materials);
     }
@@ -37,6 +41,12 @@ public final class HephaestusData {
     public void registerProcessRecipe(ProcessRecipeRegistryEntry entry) {
         if (entry == null) throw new IllegalArgumentException("entry cannot be null.");
         recipeEntries.add(entry);
+        recipeVersion.incrementAndGet();
+    }
+
+    /** Version du set de recettes: change dès qu'une recette est enregistrée. */
+    public long getRecipeVersion() {
+        return recipeVersion.get();
     }
 
     public Factory createFactory(String factoryId) {
@@ -0,0 +1,82 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.*;
+import fr.olympus.hephaestus.register.RecipeSelector;
+import fr.olympus.hephaestus.resources.HephaestusData;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** planStream = forme paresseuse de planAll, y compris sur des livres de recettes cycliques. */
+class PlanStreamTest {
+
+    private record Recipe(String id, List<MaterialMatcher> inputs, List<MaterialMatcher> outputs, int cost)
+            implements ProcessRecipe {
+        public RecipeSelector selector() { return new RecipeSelector(Set.of(), Set.of(), 0); }
+        public boolean ordered() { return false; }
+        public int priority() { return 0; }
+        public int specificityScore() { return 0; }
+        public int inputCount() { return inputs.size(); }
+        public TimeWindow timeWindowOrNull() { return null; }
+        public boolean canStart(ProcessContext ctx, HephaestusData data) { return false; }
+        public boolean tryComplete(ProcessContext ctx, HephaestusData data, float elapsed, ProcessingPhase phase) { return true; }
+    }
+
+    private static MaterialMatcher m(String id) {
+        return MaterialMatcher.id(id);
+    }
+
+    @Test
+    void byProductOfTargetDoesNotHideRoutes() {
+        // A: X -> {T, Y}, B: Y -> T, C: T -> Y (cycle T <-> Y)
+        // => T par A, ou par B sur le Y de A (C exclu: T déjà sur le chemin)
+        CraftPlanner planner = new CraftPlanner(List.of(
+                new Recipe("A", List.of(m("X")), List.of(m("T"), m("Y")), 1),
+                new Recipe("B", List.of(m("Y")), List.of(m("T")), 1),
+                new Recipe("C", List.of(m("T")), List.of(m("Y")), 1)));
+        CraftPlanner.PlanOptions options = new CraftPlanner.PlanOptions(4, 1000, true);
+
+        List<CraftPlanner.CraftPlan> all = planner.planAll(m("T"), List.of(m("X")), options);
+        List<CraftPlanner.CraftPlan> stream = planner.planStream(m("T"), List.of(m("X")), options).toList();
+
+        assertEquals(2, all.size());
+        assertEquals(signatures(all), signatures(stream));
+    }
+
+    @Test
+    void streamMatchesPlanAllOnRandomCyclicBooks() {
+        for (long seed = 0; seed < 150; seed++) {
+            Random rnd = new Random(seed);
+            List<ProcessRecipe> book = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                List<MaterialMatcher> in = new ArrayList<>();
+                for (int j = rnd.nextInt(3); j >= 0; j--) in.add(m("m" + rnd.nextInt(10)));
+                List<MaterialMatcher> out = new ArrayList<>(List.of(m("m" + (3 + rnd.nextInt(7)))));
+                if (rnd.nextInt(3) == 0) out.add(m("m" + (3 + rnd.nextInt(7)))); // sous-produit
+                book.add(new Recipe("r" + i, in, out, rnd.nextInt(10)));
+            }
+            CraftPlanner planner = new CraftPlanner(book);
+            List<MaterialMatcher> available = List.of(m("m0"), m("m1"), m("m2"));
+
+            for (int depth = 1; depth <= 4; depth++) {
+                CraftPlanner.PlanOptions options = new CraftPlanner.PlanOptions(depth, 100_000, depth % 2 == 0);
+                for (int t = 3; t < 10; t++) {
+                    List<CraftPlanner.CraftPlan> all = planner.planAll(m("m" + t), available, options);
+                    assertTrue(all.size() < 20_000, "budget must not cut planAll");
+                    List<CraftPlanner.CraftPlan> stream = planner.planStream(m("m" + t), available, options).toList();
+                    assertEquals(signatures(all), signatures(stream), "seed " + seed + " target m" + t + " depth " + depth);
+                }
+            }
+        }
+    }
+
+    /** Multiset (coût, signature) des plans. */
+    private static Map<String, Integer> signatures(List<CraftPlanner.CraftPlan> plans) {
+        Map<String, Integer> out = new TreeMap<>();
+        for (CraftPlanner.CraftPlan p : plans) out.merge(p.totalCost + " " + p.signature(), 1, Integer::sum);
+        return out;
+    }
+}
@@ -0,0 +1,144 @@
+package fr.olympus.hephaestus.planning;
+
+import fr.olympus.hephaestus.processing.*;
+import fr.olympus.hephaestus.register.RecipeSelector;
+import fr.olympus.hephaestus.resources.HephaestusData;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Mêmes résultats par tous les chemins, sur des livres de recettes aléatoires (cycliques ou non):
+ * parallèle = séquentiel, session = replan complet, planBest (Knuth) = coût min de planAll.
+ */
+class PlannerConsistencyTest {
+
+    private static final int MATERIALS = 10;
+
+    private record Recipe(String id, List<MaterialMatcher> inputs, List<MaterialMatcher> outputs, int cost)
+            implements ProcessRecipe {
+        public RecipeSelector selector() { return new RecipeSelector(Set.of(), Set.of(), 0); }
+        public boolean ordered() { return false; }
+        public int priority() { return 0; }
+        public int specificityScore() { return 0; }
+        public int inputCount() { return inputs.size(); }
+        public TimeWindow timeWindowOrNull() { return null; }
+        public boolean canStart(ProcessContext ctx, HephaestusData data) { return false; }
+        public boolean tryComplete(ProcessContext ctx, HephaestusData data, float elapsed, ProcessingPhase phase) { return true; }
+    }
+
+    private static MaterialMatcher m(int id) {
+        return MaterialMatcher.id("m" + id);
+    }
+
+    /** m0..m2: matières premières; cyclic: les inputs peuvent être n'importe quel matériau. */
+    private static List<ProcessRecipe> book(long seed, boolean cyclic) {
+        Random rnd = new Random(seed);
+        List<ProcessRecipe> book = new ArrayList<>();
+        for (int i = 0; i < 14; i++) {
+            int out = 3 + rnd.nextInt(MATERIALS - 3);
+            List<MaterialMatcher> in = new ArrayList<>();
+            for (int j = rnd.nextInt(3); j >= 0; j--) in.add(m(cyclic ? rnd.nextInt(MATERIALS) : rnd.nextInt(out)));
+            List<MaterialMatcher> outputs = new ArrayList<>(List.of(m(out)));
+            if (rnd.nextInt(4) == 0) outputs.add(m(3 + rnd.nextInt(MATERIALS - 3))); // sous-produit
+            book.add(new Recipe("r" + i, in, outputs, rnd.nextInt(10)));
+        }
+        return book;
+    }
+
+    @Test
+    void parallelMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (long seed = 0; seed < 100; seed++) {
+                CraftPlanner sequential = new CraftPlanner(book(seed, seed % 2 == 0));
+                ParallelCraftPlanner parallel = new ParallelCraftPlanner(sequential, pool);
+                List<MaterialMatcher> available = List.of(m(0), m(1), m(2));
+                CraftPlanner.PlanOptions options = new CraftPlanner.PlanOptions(3, 100_000, seed % 3 != 0);
+
+                for (int t = 3; t < MATERIALS; t++) {
+                    String where = "seed " + seed + " target m" + t;
+                    List<CraftPlanner.CraftPlan> all = sequential.planAll(m(t), available, options);
+                    assertTrue(all.size() < 20_000, "budget must not cut planAll");
+                    assertEquals(signatures(all), signatures(parallel.planAll(m(t), available, options)), where);
+                    assertEquals(costs(sequential.planTopK(m(t), available, 3, options)),
+                            costs(parallel.planTopK(m(t), available, 3, options)), where);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void sessionMatchesFreshReplan() {
+        for (long seed = 0; seed < 100; seed++) {
+            CraftPlanner planner = new CraftPlanner(book(seed, seed % 2 == 0));
+            CraftPlanner.PlanOptions options = new CraftPlanner.PlanOptions(4, 100_000, true);
+            Random rnd = new Random(~seed);
+            MaterialMatcher target = m(MATERIALS - 1 - rnd.nextInt(3));
+
+            Set<MaterialMatcher> inventory = new LinkedHashSet<>(List.of(m(0), m(1), m(2)));
+            PlanningSession session = planner.session(target, new ArrayList<>(inventory), CraftPlanner.Mode.TOP_K, 3, options);
+            for (int step = 0; step < 12; step++) {
+                MaterialMatcher x = m(rnd.nextInt(MATERIALS));
+                List<CraftPlanner.CraftPlan> got;
+                if (inventory.remove(x)) {
+                    got = session.remove(List.of(x));
+                } else {
+                    inventory.add(x);
+                    got = session.add(List.of(x));
+                }
+                String where = "seed " + seed + " step " + step;
+                List<CraftPlanner.CraftPlan> fresh = planner.planTopK(target, new ArrayList<>(inventory), 3, options);
+                assertEquals(costs(fresh), costs(got), where);
+
+                // fermeture réparée (Reachability.next) = passe complète
+                Reachability repaired = session.available().reachability();
+                Reachability full = Reachability.compute(session.available());
+                assertArrayEquals(full.minDepth, repaired.minDepth, where);
+                assertArrayEquals(full.recipeDepth, repaired.recipeDepth, where);
+                assertArrayEquals(full.minCost, repaired.minCost, where);
+            }
+        }
+    }
+
+    @Test
+    void planBestCostIsMinimumOfPlanAll() {
+        for (long seed = 0; seed < 150; seed++) {
+            CraftPlanner planner = new CraftPlanner(book(seed, true));
+            List<MaterialMatcher> available = List.of(m(0), m(1), m(2));
+            // hauteur d'un plan sans matériau répété sur un chemin <= nombre de matériaux: rien n'est coupé
+            CraftPlanner.PlanOptions options = new CraftPlanner.PlanOptions(MATERIALS, 1_000_000, true);
+
+            for (int t = 3; t < MATERIALS; t++) {
+                List<CraftPlanner.CraftPlan> all = planner.planAll(m(t), available, options);
+                assertTrue(all.size() < 1_000_000, "budget must not cut planAll");
+                OptionalInt min = all.stream().mapToInt(p -> p.totalCost).min();
+                Optional<CraftPlanner.CraftPlan> best = planner.planBest(m(t), available, options);
+                String where = "seed " + seed + " target m" + t;
+                assertEquals(min.isPresent(), best.isPresent(), where);
+                if (best.isPresent()) assertEquals(min.getAsInt(), best.get().totalCost, where);
+            }
+        }
+    }
+
+    /** Multiset (coût, signature) des plans. */
+    private static Map<String, Integer> signatures(List<CraftPlanner.CraftPlan> plans) {
+        Map<String, Integer> out = new TreeMap<>();
+        for (CraftPlanner.CraftPlan p : plans) out.merge(p.totalCost + " " + p.signature(), 1, Integer::sum);
+        return out;
+    }
+
+    /** Coûts dans l'ordre rendu (à coût égal, le choix entre plans n'est pas fixé). */
+    private static List<Integer> costs(List<CraftPlanner.CraftPlan> plans) {
+        List<Integer> out = new ArrayList<>(plans.size());
+        for (CraftPlanner.CraftPlan p : plans) out.add(p.totalCost);
+        return out;
+    }
+}